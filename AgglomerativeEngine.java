@@ -0,0 +1,311 @@
+/*
+ * AgglomerativeEngine.java
+ *
+ * Shared steps for the ClusteringEngine implementations: joining two trees
+ * of the forest, updating the distance matrix, and the strict ordering of
+ * candidate pairs.
+ *
+ * Pairs are ordered by distance first and then by their joined label
+ * (alphabetically earlier label + "+" + later label), which is the
+ * assignment's tie-breaking rule.  Labels are compared in place, so the
+ * forest can be LinkedTreeNodes or views of a CompactTree.  The
+ * distances to a joined tree are computed by the engine's Linkage (UPGMA,
+ * the assignment's rule, by default).  Subclasses implement the cluster
+ * that takes BuildMetrics, and pass the metrics on to join, which counts
+ * the joins.
+ *
+ * UPGMA averages are computed exactly.  Species.distance gives whole
+ * numbers of differing sites over the sequence length, so the distance
+ * between two trees is the total number of differing sites between their
+ * species, over (length * size * size).  join recovers those totals from
+ * the distances it averages, adds them, and divides once, so a distance
+ * is the same double whichever order the trees were joined in, and equal
+ * averages tie exactly.  Engines that join in different orders then see
+ * the same distances (see NearestNeighborChainEngine).  Distances that
+ * are not such fractions (e.g. a single precision matrix, or totals too
+ * large to recover) are averaged by the Linkage as usual.
+ *
+ */
+
+public abstract class AgglomerativeEngine implements ClusteringEngine {
+    private static final long EXACT_PAIRS = 1L << 45;   // Most sites * species pairs averaged exactly
+
+    private Linkage linkage;              // Computes the distances to a joined tree
+
+    // CONSTRUCTOR
+
+    // AgglomerativeEngine
+    // Pre-conditions:
+    //        - linkage is non-null, unless the subclass overrides
+    //          joinedDistance with its own rule
+    // Post-conditions:
+    //        - An engine that updates distances with linkage has been created
+    protected AgglomerativeEngine(Linkage linkage) {
+        this.linkage = linkage;
+        return;
+    }
+
+    // getLinkage
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the linkage (null if the engine has its own rule)
+    public Linkage getLinkage() {
+        return this.linkage;
+    }
+
+    // cluster
+    // Pre-conditions:
+    //        - See ClusteringEngine
+    // Post-conditions:
+    //        - Returns the root of the tree built from all leaves
+    public PhyloTreeNode cluster(PhyloTreeNode[] leaves, DistanceMatrix distances) {
+        return cluster(leaves, distances, null);
+    }
+
+    // cluster
+    // Pre-conditions:
+    //        - See ClusteringEngine
+    // Post-conditions:
+    //        - Returns the root of the tree built from all leaves, with each
+    //          join counted in metrics (if non-null) as it is made
+    public abstract PhyloTreeNode cluster(PhyloTreeNode[] leaves, DistanceMatrix distances, BuildMetrics metrics);
+
+    // closer
+    // Pre-conditions:
+    //        - node is a tree; dist1 and dist2 are its distances to the
+    //          distinct trees other1 and other2
+    // Post-conditions:
+    //        - Returns true if joining node with other1 comes strictly before
+    //          joining node with other2 in the (distance, joined label) order
+    static boolean closer(PhyloTreeNode node, double dist1, PhyloTreeNode other1, double dist2, PhyloTreeNode other2) {
+        if( dist1 != dist2 ) {
+            return dist1 < dist2;
+        }
+        return compareJoins(node, other1, other2) < 0;
+    }
+
+    // closerPair
+    // Pre-conditions:
+    //        - dist1 is the distance between the trees a1 and b1, dist2 the
+    //          distance between the trees a2 and b2
+    // Post-conditions:
+    //        - Returns true if joining a1 with b1 comes strictly before
+    //          joining a2 with b2 in the (distance, joined label) order
+    static boolean closerPair(double dist1, PhyloTreeNode a1, PhyloTreeNode b1,
+                              double dist2, PhyloTreeNode a2, PhyloTreeNode b2) {
+        if( dist1 != dist2 ) {
+            return dist1 < dist2;
+        }
+        boolean ordered1 = compareLabels(a1, b1) <= 0;
+        boolean ordered2 = compareLabels(a2, b2) <= 0;
+        return compareJoined(ordered1 ? a1 : b1, ordered1 ? b1 : a1,
+                             ordered2 ? a2 : b2, ordered2 ? b2 : a2) < 0;
+    }
+
+    // sites
+    // Pre-conditions:
+    //        - leaves holds one single-node tree per species
+    // Post-conditions:
+    //        - Returns the length of the species' sequences, if they all
+    //          have the same positive length, else 0
+    static int sites(PhyloTreeNode[] leaves) {
+        int sites = 0;
+        for( PhyloTreeNode leaf : leaves ) {
+            Species species = leaf.getSpecies();
+            if( species == null || species.getLength() == 0 || (sites != 0 && species.getLength() != sites) ) {
+                return 0;
+            }
+            sites = species.getLength();
+        }
+        return sites;
+    }
+
+    // join
+    // Pre-conditions:
+    //        - forest[a] and forest[b] are two distinct trees still in the forest
+    //        - metrics is the build's metrics, or null
+    // Post-conditions:
+    //        - As the join below, without exact averages
+    void join(int a, int b, PhyloTreeNode[] forest, DistanceMatrix distances, BuildMetrics metrics) {
+        join(a, b, forest, distances, 0, metrics);
+        return;
+    }
+
+    // join
+    // Pre-conditions:
+    //        - forest[a] and forest[b] are two distinct trees still in the forest
+    //        - sites is sites(leaves) for the forest's leaves, or 0
+    //        - metrics is the build's metrics, or null
+    // Post-conditions:
+    //        - A new tree with forest[a] and forest[b] as children has been
+    //          placed in row a, and row b has been removed from the forest
+    //        - Row and column a of distances hold the distances to the new
+    //          tree, averaged exactly (see above) if the linkage is UPGMA
+    //          and sites is not 0
+    //        - If the forest is made of CompactTree views, the new tree is
+    //          joined in that CompactTree, else it is a new linked node
+    //        - The join has been counted in metrics
+    void join(int a, int b, PhyloTreeNode[] forest, DistanceMatrix distances, int sites, BuildMetrics metrics) {
+        PhyloTreeNode nodeA = forest[a];
+        PhyloTreeNode nodeB = forest[b];
+        double dist = distances.get(a, b);
+        boolean aFirst = compareLabels(nodeA, nodeB) <= 0;
+        PhyloTreeNode left = aFirst ? nodeA : nodeB;
+        PhyloTreeNode right = aFirst ? nodeB : nodeA;
+        PhyloTreeNode parent;
+        CompactTree tree = CompactTree.treeOf(nodeA);
+        if( tree != null ) {
+            parent = tree.join(CompactTree.idOf(left), CompactTree.idOf(right), dist/2);
+        } else {
+            parent = new LinkedTreeNode(left.getLabel() + "+" + right.getLabel(), null, left, right, dist/2);
+            left.setParent(parent);
+            right.setParent(parent);
+        }
+
+        double sizeA = nodeA.getNumLeafs();
+        double sizeB = nodeB.getNumLeafs();
+        boolean exact = sites > 0 && this.linkage == Linkage.UPGMA;
+        for( int i=0; i<forest.length; i++ ) {
+            if( i == a || i == b || forest[i] == null ) {
+                continue;
+            }
+            double distA = distances.get(a, i);
+            double distB = distances.get(b, i);
+            double joined = exact ? exactAverage(distA, distB, (long) sizeA, (long) sizeB, forest[i].getNumLeafs(), sites)
+                                  : Double.NaN;
+            if( Double.isNaN(joined) ) {
+                joined = joinedDistance(distA, distB, dist, sizeA, sizeB);
+            }
+            distances.set(a, i, joined);
+        }
+        forest[a] = parent;
+        forest[b] = null;
+        if( metrics != null ) {
+            metrics.merged();
+        }
+        return;
+    }
+
+    // exactAverage
+    // Pre-conditions:
+    //        - distA and distB are the distances from a tree of sizeC
+    //          species to trees of sizeA and sizeB species; sites > 0
+    // Post-conditions:
+    //        - If distA and distB are averages of distances that are whole
+    //          numbers of differing sites over sites (see above), returns
+    //          their UPGMA average, correctly rounded from the exact totals
+    //        - Else returns NaN
+    static double exactAverage(double distA, double distB, long sizeA, long sizeB, long sizeC, int sites) {
+        long pairsA = sites * sizeA * sizeC;
+        long pairsB = sites * sizeB * sizeC;
+        if( pairsA + pairsB > EXACT_PAIRS ) {
+            return Double.NaN;
+        }
+        // Each total is off by at most a few units in the last place of pairs
+        double totalA = distA * pairsA;
+        double totalB = distB * pairsB;
+        long diffsA = Math.round(totalA);
+        long diffsB = Math.round(totalB);
+        double slack = (pairsA + pairsB) * 0x1p-50;
+        if( Math.abs(totalA - diffsA) > slack || Math.abs(totalB - diffsB) > slack ) {
+            return Double.NaN;
+        }
+        return (double) (diffsA + diffsB) / (double) (pairsA + pairsB);
+    }
+
+    // joinedDistance
+    // Pre-conditions:
+    //        - distA and distB are the distances from a third tree to trees of
+    //          sizeA and sizeB species, at distance distAB from each other,
+    //          which are being joined
+    // Post-conditions:
+    //        - Returns the distance from the third tree to the joined tree,
+    //          as the linkage says
+    protected double joinedDistance(double distA, double distB, double distAB, double sizeA, double sizeB) {
+        return this.linkage.update(distA, distB, sizeA, sizeB);
+    }
+
+    // compareLabels
+    // Pre-conditions:
+    //        - node1 and node2 are trees
+    // Post-conditions:
+    //        - Compares their labels as String.compareTo would (by sign),
+    //          without building the labels of CompactTree views
+    static int compareLabels(PhyloTreeNode node1, PhyloTreeNode node2) {
+        CompactTree tree = CompactTree.treeOf(node1);
+        if( tree != null ) {
+            return tree.compareJoined(node1, null, node2, null);
+        }
+        return node1.getLabel().compareTo(node2.getLabel());
+    }
+
+    // compareJoins
+    // Pre-conditions:
+    //        - node, other1 and other2 are three distinct trees
+    // Post-conditions:
+    //        - Compares the label that joining node with other1 would produce
+    //          to the label that joining node with other2 would produce,
+    //          without building either string
+    //        - Returns a negative number, zero, or a positive number as the first
+    //          joined label is less than, equal to, or greater than the second
+    static int compareJoins(PhyloTreeNode node, PhyloTreeNode other1, PhyloTreeNode other2) {
+        boolean first1 = compareLabels(node, other1) <= 0;
+        boolean first2 = compareLabels(node, other2) <= 0;
+        if( first1 && first2 ) {
+            return compareLabels(other1, other2);
+        }
+        return compareJoined(first1 ? node : other1, first1 ? other1 : node,
+                             first2 ? node : other2, first2 ? other2 : node);
+    }
+
+    // compareJoined
+    // Pre-conditions:
+    //        - left1, right1, left2 and right2 are trees
+    // Post-conditions:
+    //        - Compares label(left1) + "+" + label(right1) to
+    //          label(left2) + "+" + label(right2) lexicographically, as
+    //          String.compareTo would (by sign)
+    static int compareJoined(PhyloTreeNode left1, PhyloTreeNode right1, PhyloTreeNode left2, PhyloTreeNode right2) {
+        CompactTree tree = CompactTree.treeOf(left1);
+        if( tree != null ) {
+            return tree.compareJoined(left1, right1, left2, right2);
+        }
+        return compareJoined(left1.getLabel(), right1.getLabel(), left2.getLabel(), right2.getLabel());
+    }
+
+    // compareJoined
+    // Pre-conditions:
+    //        - left1, right1, left2 and right2 are non-null
+    // Post-conditions:
+    //        - Compares left1 + "+" + right1 to left2 + "+" + right2
+    //          lexicographically, as String.compareTo would
+    private static int compareJoined(String left1, String right1, String left2, String right2) {
+        int length1 = left1.length() + 1 + right1.length();
+        int length2 = left2.length() + 1 + right2.length();
+        int limit = Math.min(length1, length2);
+        for( int i=0; i<limit; i++ ) {
+            char c1 = joinedCharAt(left1, right1, i);
+            char c2 = joinedCharAt(left2, right2, i);
+            if( c1 != c2 ) {
+                return c1 - c2;
+            }
+        }
+        return length1 - length2;
+    }
+
+    // joinedCharAt
+    // Pre-conditions:
+    //        - 0 <= i < left.length() + 1 + right.length()
+    // Post-conditions:
+    //        - Returns the character at position i of left + "+" + right
+    private static char joinedCharAt(String left, String right, int i) {
+        if( i < left.length() ) {
+            return left.charAt(i);
+        } else if( i == left.length() ) {
+            return '+';
+        } else {
+            return right.charAt(i - left.length() - 1);
+        }
+    }
+}
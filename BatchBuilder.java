@@ -0,0 +1,367 @@
+/*
+ * BatchBuilder.java
+ *
+ * Builds a PhyloTree for every FASTA file named in a manifest (such as
+ * animals.list or plants.list), concurrently, in a single JVM.
+ *
+ * Usage: java BatchBuilder manifest outputDir [workers] [--virtual]
+ *
+ * Each line of the manifest is the path of a FASTA file, relative to the
+ * working directory or to the manifest's own directory.  Trees are built
+ * on a fixed pool of workers (default: one per processor); the distance
+ * matrix of each build gets an equal share of the processors.  Loading is
+ * I/O bound, so with --virtual each file is read on its own virtual thread
+ * (on JDKs that have them).  At most 2 * workers files are held in memory
+ * at once.
+ *
+ * For every file, outputDir gets a <name>.tree file with the tree in
+ * toTreeString format (see treeNames for files with the same name in
+ * different directories), and summary.tsv gets a line with the species
+ * count and the load, build and total time in milliseconds.  A file that
+ * cannot be read, whose sequences are not aligned, or whose load or build
+ * fails in any other way (even with an Error such as OutOfMemoryError)
+ * gets an error in summary.tsv instead, and the other files are still
+ * built.
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+public class BatchBuilder {
+    private int workers;                  // Trees built at the same time
+    private boolean virtualThreads;       // Load files on virtual threads
+    private File outputDir;               // Where .tree files and summary.tsv are written
+    private ClusteringEngine engine;      // Builds every tree (null for BuildOptions' default)
+
+    // CONSTRUCTOR
+
+    // BatchBuilder
+    // Pre-conditions:
+    //        - workers is at least 1
+    //        - outputDir is a directory (it is created if missing)
+    // Post-conditions:
+    //        - A batch builder with the given settings has been created
+    public BatchBuilder(int workers, boolean virtualThreads, File outputDir) {
+        this.workers = workers;
+        this.virtualThreads = virtualThreads;
+        this.outputDir = outputDir;
+        return;
+    }
+
+    // MODIFIER
+
+    // setEngine
+    // Pre-conditions:
+    //        - engine is a ClusteringEngine, or null for BuildOptions' default
+    // Post-conditions:
+    //        - Every tree of the next run is built with engine
+    public void setEngine(ClusteringEngine engine) {
+        this.engine = engine;
+        return;
+    }
+
+    // main
+    // Pre-conditions:
+    //        - args holds the manifest path, the output directory, and
+    //          optionally the number of workers and --virtual
+    // Post-conditions:
+    //        - Builds every listed tree and writes the outputs; exits with
+    //          status 1 if any file failed
+    public static void main(String[] args) throws IOException {
+        if( args.length < 2 ) {
+            System.err.println("Usage: java BatchBuilder manifest outputDir [workers] [--virtual]");
+            System.exit(2);
+        }
+        int workers = Runtime.getRuntime().availableProcessors();
+        boolean virtual = false;
+        for( int i=2; i<args.length; i++ ) {
+            if( args[i].equals("--virtual") ) {
+                virtual = true;
+            } else {
+                workers = Integer.parseInt(args[i]);
+            }
+        }
+        BatchBuilder batch = new BatchBuilder(workers, virtual, new File(args[1]));
+        List<Result> results = batch.run(readManifest(args[0]));
+        for( Result result : results ) {
+            System.out.println(result);
+        }
+        for( Result result : results ) {
+            if( result.error != null ) {
+                System.exit(1);
+            }
+        }
+    }
+
+    // readManifest
+    // Pre-conditions:
+    //        - manifest is the path of a manifest file
+    // Post-conditions:
+    //        - Returns the FASTA files it lists, resolved against the working
+    //          directory if they exist there, else against the manifest's directory
+    public static List<String> readManifest(String manifest) throws IOException {
+        Path base = Paths.get(manifest).toAbsolutePath().getParent();
+        List<String> files = new ArrayList<String>();
+        for( String line : Files.readAllLines(Paths.get(manifest), StandardCharsets.UTF_8) ) {
+            line = line.trim();
+            if( line.isEmpty() || line.startsWith("#") ) {
+                continue;
+            }
+            if( !new File(line).exists() && base != null && base.resolve(line).toFile().exists() ) {
+                line = base.resolve(line).toString();
+            }
+            files.add(line);
+        }
+        return files;
+    }
+
+    // run
+    // Pre-conditions:
+    //        - files holds the paths of FASTA files
+    // Post-conditions:
+    //        - Builds a tree for every file, writes the .tree files and
+    //          summary.tsv, and returns one Result per file, in order
+    public List<Result> run(List<String> files) throws IOException {
+        Files.createDirectories(this.outputDir.toPath());
+        ExecutorService buildPool = Executors.newFixedThreadPool(this.workers);
+        ExecutorService loadPool = this.virtualThreads ? newVirtualThreadExecutor() : null;
+        if( loadPool == null ) {
+            loadPool = buildPool;
+        }
+        final Semaphore inFlight = new Semaphore(2 * this.workers);
+        final BuildOptions options = new BuildOptions();
+        options.setParallelism(Math.max(1, Runtime.getRuntime().availableProcessors() / this.workers));
+        if( this.engine != null ) {
+            options.setEngine(this.engine);
+        }
+
+        List<String> treeNames = treeNames(files);
+        List<CompletableFuture<Result>> pending = new ArrayList<CompletableFuture<Result>>();
+        try {
+            for( int i=0; i<files.size(); i++ ) {
+                inFlight.acquireUninterruptibly();
+                final Result result = new Result(files.get(i), treeNames.get(i));
+                CompletableFuture<Result> future = CompletableFuture
+                    .supplyAsync(() -> load(result), loadPool)
+                    .thenApplyAsync(species -> build(result, species, options), buildPool)
+                    .handle((r, ex) -> (ex == null) ? r : failed(result, ex))
+                    .whenComplete((r, ex) -> inFlight.release());
+                pending.add(future);
+            }
+            List<Result> results = new ArrayList<Result>();
+            for( CompletableFuture<Result> future : pending ) {
+                results.add(future.join());
+            }
+            writeSummary(results);
+            return results;
+        } finally {
+            buildPool.shutdown();
+            loadPool.shutdown();
+        }
+    }
+
+    // load
+    // Pre-conditions:
+    //        - result.file is the file to load
+    // Post-conditions:
+    //        - Returns its species (null on failure, with result.error set)
+    private Species[] load(Result result) {
+        long start = System.nanoTime();
+        try {
+            return new FastaReader().read(result.file);
+        } catch( IOException ex ) {
+            result.error = "Unable to open file " + result.file;
+            return null;
+        } catch( RuntimeException ex ) {
+            result.error = ex.toString();
+            return null;
+        } finally {
+            result.loadMillis = (System.nanoTime() - start) / 1000000;
+        }
+    }
+
+    // build
+    // Pre-conditions:
+    //        - species was loaded from result.file (or is null on failure)
+    // Post-conditions:
+    //        - Builds the tree, writes its .tree file and returns result
+    //          with the timings filled in
+    private Result build(Result result, Species[] species, BuildOptions options) {
+        if( species == null ) {
+            return result;
+        }
+        // Species.distance exits the JVM on unaligned sequences, which would
+        // stop the whole batch, so they are caught here
+        result.error = alignmentError(species);
+        if( result.error != null ) {
+            return result;
+        }
+        long start = System.nanoTime();
+        try {
+            PhyloTree tree = new PhyloTree(species, 1, options);
+            result.species = tree.countAllSpecies();
+            result.buildMillis = (System.nanoTime() - start) / 1000000;
+            PrintWriter out = new PrintWriter(new File(this.outputDir, result.treeName), "UTF-8");
+            try {
+                tree.writeTreeString(out);
+                out.println();
+            } finally {
+                out.close();
+            }
+        } catch( Exception ex ) {
+            result.error = ex.toString();
+        }
+        return result;
+    }
+
+    // failed
+    // Pre-conditions:
+    //        - ex is what result's load or build threw
+    // Post-conditions:
+    //        - Returns result, with ex as its error (unless it already has one)
+    // Notes:
+    //        - load and build catch what they expect; this records anything
+    //          else (e.g. an Error), so that one file cannot stop the batch
+    //          before summary.tsv is written
+    private static Result failed(Result result, Throwable ex) {
+        if( ex instanceof CompletionException && ex.getCause() != null ) {
+            ex = ex.getCause();
+        }
+        if( result.error == null ) {
+            result.error = ex.toString();
+        }
+        return result;
+    }
+
+    // writeSummary
+    // Pre-conditions:
+    //        - results holds one Result per file
+    // Post-conditions:
+    //        - outputDir/summary.tsv holds one line per result
+    private void writeSummary(List<Result> results) throws IOException {
+        PrintWriter out = new PrintWriter(new File(this.outputDir, "summary.tsv"), "UTF-8");
+        try {
+            out.println("file\tspecies\tload_ms\tbuild_ms\ttotal_ms\tstatus");
+            for( Result result : results ) {
+                out.println(result);
+            }
+        } finally {
+            out.close();
+        }
+        return;
+    }
+
+    // alignmentError
+    // Pre-conditions:
+    //        - species is non-null
+    // Post-conditions:
+    //        - Returns null if every species has the same number of sites,
+    //          else a message naming two species whose lengths differ
+    static String alignmentError(Species[] species) {
+        for( int i=1; i<species.length; i++ ) {
+            if( species[i].getLength() != species[0].getLength() ) {
+                return "Sequences are not aligned: " + species[0].getName() + " has " + species[0].getLength()
+                    + " sites, " + species[i].getName() + " has " + species[i].getLength();
+            }
+        }
+        return null;
+    }
+
+    // treeNames
+    // Pre-conditions:
+    //        - files holds the paths of FASTA files
+    // Post-conditions:
+    //        - Returns the names of their output files, in order, all
+    //          different: treeName(file), except that a name shared by
+    //          several files (e.g. MTH/x.ref.fasta and PLN/x.ref.fasta) gets
+    //          the file's 1-based position in files added, as x.2.tree
+    static List<String> treeNames(List<String> files) {
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        for( String file : files ) {
+            counts.merge(treeName(file), 1, Integer::sum);
+        }
+        Set<String> used = new HashSet<String>();
+        List<String> names = new ArrayList<String>();
+        for( int i=0; i<files.size(); i++ ) {
+            String name = treeName(files.get(i));
+            String base = name.substring(0, name.length() - ".tree".length());
+            if( counts.get(name) > 1 ) {
+                base = base + "." + (i + 1);
+            }
+            // a numbered name can still match another file's own name
+            while( !used.add(base) ) {
+                base = base + "." + (i + 1);
+            }
+            names.add(base + ".tree");
+        }
+        return names;
+    }
+
+    // treeName
+    // Pre-conditions:
+    //        - file is the path of a FASTA file
+    // Post-conditions:
+    //        - Returns the name of its output file: the file name without
+    //          its .fasta / .ref.fasta extension, plus .tree
+    static String treeName(String file) {
+        String name = new File(file).getName();
+        if( name.endsWith(".fasta") ) {
+            name = name.substring(0, name.length() - ".fasta".length());
+        }
+        if( name.endsWith(".ref") ) {
+            name = name.substring(0, name.length() - ".ref".length());
+        }
+        return name + ".tree";
+    }
+
+    // newVirtualThreadExecutor
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns an executor that starts a virtual thread per task, or
+    //          null if this JDK does not have virtual threads
+    static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch( ReflectiveOperationException ex ) {
+            return null;
+        }
+    }
+
+    // Timings and status of one file of the batch
+    public static class Result {
+        String file;
+        String treeName;          // Its output file's name, in outputDir
+        int species;
+        long loadMillis;
+        long buildMillis;
+        String error;             // null if the tree was built
+
+        Result(String file, String treeName) {
+            this.file = file;
+            this.treeName = treeName;
+        }
+
+        public String toString() {
+            return this.file + "\t" + this.species + "\t" + this.loadMillis + "\t" + this.buildMillis
+                + "\t" + (this.loadMillis + this.buildMillis) + "\t" + (this.error == null ? "ok" : this.error);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * BatchQuery.java
+ *
+ * Answers many evolutionary distance or least common ancestor queries at
+ * once, for PhyloTree's and TreeSnapshot's batch methods.
+ *
+ * Labels are first resolved to LcaIndex node ids, each with one lookup;
+ * the queries are then answered by LcaIndex from the ids alone, in a loop
+ * over plain arrays, into arrays the caller provides.  Nothing is
+ * allocated per query.  Large batches are cut into ranges of pairs that
+ * are split in half recursively across DistanceFill's shared pools, each
+ * range resolving and answering its own pairs.  Every answer is
+ * computed by one task, so the results do not depend on the parallelism.
+ *
+ */
+
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Function;
+
+@SuppressWarnings("serial")   // tasks are never serialized
+class BatchQuery extends RecursiveAction {
+    private static final int PAIRS_PER_TASK = 8192;   // Pairs answered without splitting further
+
+    private LcaIndex index;
+    private Function<String, PhyloTreeNode> lookup;   // Finds a node by label (if labels are given)
+    private String[] labels1;                         // Labels to resolve into ids1 (or null)
+    private String[] labels2;                         // Labels to resolve into ids2 (or null)
+    private int[] ids1;
+    private int[] ids2;
+    private double[] distances;                       // Where distances go (or null)
+    private int[] ancestors;                          // Where ancestor ids go (or null)
+    private int from;                                 // The range of pairs, [from, to)
+    private int to;
+
+    // BatchQuery
+    // Pre-conditions:
+    //        - See the static methods below
+    // Post-conditions:
+    //        - A task that answers the pairs in [from, to) has been created
+    private BatchQuery(LcaIndex index, Function<String, PhyloTreeNode> lookup, String[] labels1, String[] labels2,
+                       int[] ids1, int[] ids2, double[] distances, int[] ancestors, int from, int to) {
+        this.index = index;
+        this.lookup = lookup;
+        this.labels1 = labels1;
+        this.labels2 = labels2;
+        this.ids1 = ids1;
+        this.ids2 = ids2;
+        this.distances = distances;
+        this.ancestors = ancestors;
+        this.from = from;
+        this.to = to;
+    }
+
+    // resolve
+    // Pre-conditions:
+    //        - lookup finds the nodes of the tree index was built from
+    //        - labels and ids hold at least count entries
+    //        - parallelism is the number of threads to use (at least 1)
+    // Post-conditions:
+    //        - ids[i] is the id of the node labelled labels[i], or -1 if
+    //          there is none, for every i < count
+    static void resolve(LcaIndex index, Function<String, PhyloTreeNode> lookup, String[] labels, int[] ids,
+                        int count, int parallelism) {
+        run(new BatchQuery(index, lookup, labels, null, ids, null, null, null, 0, count), parallelism);
+        return;
+    }
+
+    // distances
+    // Pre-conditions:
+    //        - ids1, ids2 and distances hold at least count entries, the ids
+    //          being ids of index's nodes (or -1)
+    //        - parallelism is the number of threads to use (at least 1)
+    // Post-conditions:
+    //        - distances[i] is the evolutionary distance between nodes
+    //          ids1[i] and ids2[i] (POSITIVE_INFINITY if either is -1), for
+    //          every i < count
+    static void distances(LcaIndex index, int[] ids1, int[] ids2, double[] distances, int count, int parallelism) {
+        run(new BatchQuery(index, null, null, null, ids1, ids2, distances, null, 0, count), parallelism);
+        return;
+    }
+
+    // distances
+    // Pre-conditions:
+    //        - lookup finds the nodes of the tree index was built from
+    //        - labels1, labels2 and distances hold at least count entries
+    //        - parallelism is the number of threads to use (at least 1)
+    // Post-conditions:
+    //        - distances[i] is the evolutionary distance between the nodes
+    //          labelled labels1[i] and labels2[i] (POSITIVE_INFINITY if
+    //          either cannot be found), for every i < count
+    static void distances(LcaIndex index, Function<String, PhyloTreeNode> lookup, String[] labels1, String[] labels2,
+                          double[] distances, int count, int parallelism) {
+        run(new BatchQuery(index, lookup, labels1, labels2, new int[count], new int[count], distances, null, 0, count),
+            parallelism);
+        return;
+    }
+
+    // ancestors
+    // Pre-conditions:
+    //        - ids1, ids2 and ancestors hold at least count entries, the ids
+    //          being ids of index's nodes (or -1)
+    //        - parallelism is the number of threads to use (at least 1)
+    // Post-conditions:
+    //        - ancestors[i] is the id of the least common ancestor of nodes
+    //          ids1[i] and ids2[i] (-1 if either is -1), for every i < count
+    static void ancestors(LcaIndex index, int[] ids1, int[] ids2, int[] ancestors, int count, int parallelism) {
+        run(new BatchQuery(index, null, null, null, ids1, ids2, null, ancestors, 0, count), parallelism);
+        return;
+    }
+
+    // run
+    // Pre-conditions:
+    //        - parallelism is the number of threads to use (at least 1)
+    // Post-conditions:
+    //        - task has been computed, in the shared pool of parallelism
+    //          threads (see DistanceFill.pool) if it is large enough to be
+    //          worth splitting
+    private static void run(BatchQuery task, int parallelism) {
+        if( parallelism <= 1 || task.to - task.from <= PAIRS_PER_TASK ) {
+            task.compute();
+            return;
+        }
+        DistanceFill.pool(parallelism).invoke(task);
+        return;
+    }
+
+    // compute
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Every pair in this task's range has been answered
+    protected void compute() {
+        if( this.to - this.from <= PAIRS_PER_TASK ) {
+            answer();
+            return;
+        }
+        int middle = (this.from + this.to) >>> 1;
+        invokeAll(new BatchQuery(this.index, this.lookup, this.labels1, this.labels2, this.ids1, this.ids2,
+                                 this.distances, this.ancestors, this.from, middle),
+                  new BatchQuery(this.index, this.lookup, this.labels1, this.labels2, this.ids1, this.ids2,
+                                 this.distances, this.ancestors, middle, this.to));
+        return;
+    }
+
+    // answer
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - The labels in this task's range have been resolved, if any,
+    //          and the queries answered, if any
+    private void answer() {
+        if( this.labels1 != null ) {
+            for( int i=this.from; i<this.to; i++ ) {
+                this.ids1[i] = this.index.id(this.lookup.apply(this.labels1[i]));
+            }
+        }
+        if( this.labels2 != null ) {
+            for( int i=this.from; i<this.to; i++ ) {
+                this.ids2[i] = this.index.id(this.lookup.apply(this.labels2[i]));
+            }
+        }
+        if( this.distances != null ) {
+            this.index.distances(this.ids1, this.ids2, this.distances, this.from, this.to);
+        }
+        if( this.ancestors != null ) {
+            this.index.ancestors(this.ids1, this.ids2, this.ancestors, this.from, this.to);
+        }
+        return;
+    }
+}
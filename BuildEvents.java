@@ -0,0 +1,99 @@
+/*
+ * BuildEvents.java
+ *
+ * The JFR events BuildMetrics records while a PhyloTree is built, under
+ * the "PhyloTree" category.  They cost next to nothing unless a flight
+ * recording that enables them is running, e.g.
+ *
+ *   java -XX:StartFlightRecording:filename=build.jfr ...
+ *   jfr print --events phylotree.Build build.jfr
+ *
+ *   phylotree.Build          one per build, lasting the whole build
+ *   phylotree.BuildPhase     one per phase (see BuildPhase), lasting the phase
+ *   phylotree.BuildProgress  a few a second during the long phases
+ *
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+final class BuildEvents {
+
+    private BuildEvents() {
+    }
+
+    @Name("phylotree.Build")
+    @Label("PhyloTree Build")
+    @Category("PhyloTree")
+    @Description("Building a PhyloTree, from reading the species to indexing the tree")
+    static final class Build extends Event {
+        @Label("Species")
+        int species;
+
+        @Label("Bytes Parsed")
+        @DataAmount
+        long bytesParsed;
+
+        @Label("Distances Computed")
+        long distancesComputed;
+
+        @Label("Distances per Second")
+        double distancesPerSecond;
+
+        @Label("Merges")
+        int merges;
+
+        @Label("Peak Matrix Memory")
+        @DataAmount
+        long peakMatrixBytes;
+    }
+
+    @Name("phylotree.BuildPhase")
+    @Label("PhyloTree Build Phase")
+    @Category("PhyloTree")
+    @Description("One phase of building a PhyloTree")
+    static final class Phase extends Event {
+        @Label("Phase")
+        String phase;
+
+        @Label("Species")
+        int species;
+
+        @Label("Bytes Parsed")
+        @DataAmount
+        long bytesParsed;
+
+        @Label("Distances Computed")
+        long distancesComputed;
+
+        @Label("Merges")
+        int merges;
+    }
+
+    @Name("phylotree.BuildProgress")
+    @Label("PhyloTree Build Progress")
+    @Category("PhyloTree")
+    @Description("How far a PhyloTree build has got")
+    static final class Progress extends Event {
+        @Label("Phase")
+        String phase;
+
+        @Label("Distances Computed")
+        long distancesComputed;
+
+        @Label("Merges")
+        int merges;
+
+        @Label("Forest Size")
+        int forestSize;
+
+        @Label("Estimated Time Left")
+        @Timespan
+        long estimatedRemaining;
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * BuildListener.java
+ *
+ * Follows a PhyloTree while it is built; set one with
+ * BuildOptions.setListener.
+ *
+ * Each call gets the build's BuildMetrics, which can be read at any time
+ * (e.g. to log, to export to monitoring, or to estimate the time left).
+ * progress is called during the long phases, DISTANCES and CLUSTERING, at
+ * most a few times a second; during DISTANCES it may be called from any
+ * of the threads filling the matrix, but never from two at once.  A
+ * listener should return quickly and not throw.  Every method does
+ * nothing by default.
+ *
+ */
+
+public interface BuildListener {
+
+    // phaseStarted
+    // Pre-conditions:
+    //        - phase has just started
+    // Post-conditions:
+    //        - None
+    default void phaseStarted(BuildPhase phase, BuildMetrics metrics) {
+        return;
+    }
+
+    // progress
+    // Pre-conditions:
+    //        - phase is running, and has made progress since the last call
+    // Post-conditions:
+    //        - None
+    default void progress(BuildPhase phase, BuildMetrics metrics) {
+        return;
+    }
+
+    // phaseFinished
+    // Pre-conditions:
+    //        - phase has just finished
+    // Post-conditions:
+    //        - None
+    default void phaseFinished(BuildPhase phase, BuildMetrics metrics) {
+        return;
+    }
+
+    // buildFinished
+    // Pre-conditions:
+    //        - The tree has been built; metrics are final
+    // Post-conditions:
+    //        - None
+    default void buildFinished(BuildMetrics metrics) {
+        return;
+    }
+}
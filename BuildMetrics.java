@@ -0,0 +1,358 @@
+/*
+ * BuildMetrics.java
+ *
+ * What happened while a PhyloTree was built, and how far a build still
+ * running has got: the time spent in each BuildPhase, the bytes of FASTA
+ * parsed, the distances computed (and how fast), the merges made by the
+ * ClusteringEngine, the trees left in the forest, and the memory taken by
+ * the distance matrix.
+ *
+ * PhyloTree creates one per build and records into it as it goes; the
+ * metrics are passed to the BuildListener set in the BuildOptions, if
+ * any, and published as JFR events (see BuildEvents).  Afterwards they
+ * are available from PhyloTree.getBuildMetrics.  The getters can be
+ * called from any thread while the build runs.
+ *
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public class BuildMetrics {
+    private static final long REPORT_INTERVAL = 200000000L;   // Nanoseconds between progress reports
+
+    private BuildListener listener;                  // Told about the build (or null)
+    private BuildEvents.Build buildEvent = new BuildEvents.Build();
+    private BuildEvents.Phase phaseEvent;            // The current phase's event
+    private long buildStart;                         // System.nanoTime() when the build started
+    private volatile long buildEnd;                  // ... and when it finished (0 until then)
+    private volatile BuildPhase phase;               // The phase running (null between phases)
+    private volatile long phaseStart;                // System.nanoTime() when it started
+    private long[] phaseNanos = new long[BuildPhase.values().length];
+    private volatile int species;                    // Number of species being built from
+    private volatile long bytesParsed;
+    private AtomicLong distancesComputed = new AtomicLong();
+    private volatile long distancesNeeded;           // Distances the matrix needs computed
+    private volatile int merges;
+    private volatile long peakMatrixBytes;
+    private AtomicLong nextReport = new AtomicLong();   // Earliest System.nanoTime() of the next report
+
+    // CONSTRUCTOR
+
+    // BuildMetrics
+    // Pre-conditions:
+    //        - listener is the listener to tell about the build, or null
+    // Post-conditions:
+    //        - Metrics for a build starting now have been created
+    BuildMetrics(BuildListener listener) {
+        this.listener = listener;
+        this.buildEvent.begin();
+        this.buildStart = System.nanoTime();
+        this.nextReport.set(this.buildStart + REPORT_INTERVAL);
+    }
+
+    // ACCESSORS
+
+    // getPhase
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the phase running, or null between phases and once
+    //          the build has finished
+    public BuildPhase getPhase() {
+        return this.phase;
+    }
+
+    // isFinished
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns true once the tree has been built
+    public boolean isFinished() {
+        return this.buildEnd != 0;
+    }
+
+    // getElapsedNanos
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the time the build took, or has taken so far
+    public long getElapsedNanos() {
+        long end = this.buildEnd;
+        return ((end != 0) ? end : System.nanoTime()) - this.buildStart;
+    }
+
+    // getPhaseNanos
+    // Pre-conditions:
+    //        - phase is non-null
+    // Post-conditions:
+    //        - Returns the time spent in phase so far (0 if it has not run)
+    public long getPhaseNanos(BuildPhase phase) {
+        synchronized( this.phaseNanos ) {
+            long nanos = this.phaseNanos[phase.ordinal()];
+            if( phase == this.phase ) {
+                nanos += System.nanoTime() - this.phaseStart;
+            }
+            return nanos;
+        }
+    }
+
+    // getSpeciesCount
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the number of species the tree is built from (0
+    //          while the file is still being parsed)
+    public int getSpeciesCount() {
+        return this.species;
+    }
+
+    // getBytesParsed
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the size of the FASTA file parsed (0 if the tree was
+    //          built from species already loaded)
+    public long getBytesParsed() {
+        return this.bytesParsed;
+    }
+
+    // getDistancesComputed
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the number of pairwise distances computed so far
+    //          (none if the matrix came from the DistanceCache)
+    public long getDistancesComputed() {
+        return this.distancesComputed.get();
+    }
+
+    // getDistancesPerSecond
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the distances computed per second of the DISTANCES
+    //          phase (0 if none have been)
+    public double getDistancesPerSecond() {
+        long nanos = getPhaseNanos(BuildPhase.DISTANCES);
+        return (nanos > 0) ? getDistancesComputed() * 1e9 / nanos : 0.0;
+    }
+
+    // getMerges
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the number of joins the engine has made so far
+    public int getMerges() {
+        return this.merges;
+    }
+
+    // getForestSize
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the number of trees left to join: one per species
+    //          before clustering, one once the tree is built
+    public int getForestSize() {
+        return this.species - this.merges;
+    }
+
+    // getPeakMatrixBytes
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the largest memory (or, out of core, file) size of a
+    //          distance matrix used by the build
+    public long getPeakMatrixBytes() {
+        return this.peakMatrixBytes;
+    }
+
+    // getEstimatedRemainingNanos
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns an estimate of the time left in the current phase,
+    //          if it is DISTANCES or CLUSTERING, from how far it has got
+    //          and how long that took; 0 once the build has finished, or
+    //          -1 if there is nothing to go on
+    // Notes:
+    //        - Clustering joins get cheaper as the forest shrinks, so the
+    //          estimate is on the high side
+    public long getEstimatedRemainingNanos() {
+        if( isFinished() ) {
+            return 0;
+        }
+        BuildPhase current = this.phase;
+        double done;
+        if( current == BuildPhase.DISTANCES && this.distancesNeeded > 0 ) {
+            done = (double) getDistancesComputed() / this.distancesNeeded;
+        } else if( current == BuildPhase.CLUSTERING && this.species > 1 ) {
+            done = (double) this.merges / (this.species - 1);
+        } else {
+            return -1;
+        }
+        if( done <= 0.0 ) {
+            return -1;
+        }
+        return (long) (getPhaseNanos(current) * (1.0 - done) / done);
+    }
+
+    // RECORDING
+
+    // startPhase
+    // Pre-conditions:
+    //        - No phase is running
+    // Post-conditions:
+    //        - phase is running, and the listener has been told
+    void startPhase(BuildPhase phase) {
+        this.phaseEvent = new BuildEvents.Phase();
+        this.phaseEvent.begin();
+        synchronized( this.phaseNanos ) {
+            this.phaseStart = System.nanoTime();
+            this.phase = phase;
+        }
+        if( this.listener != null ) {
+            this.listener.phaseStarted(phase, this);
+        }
+        return;
+    }
+
+    // endPhase
+    // Pre-conditions:
+    //        - A phase is running
+    // Post-conditions:
+    //        - The phase has finished, its event has been recorded, and the
+    //          listener has been told
+    void endPhase() {
+        BuildPhase ended = this.phase;
+        synchronized( this.phaseNanos ) {
+            this.phaseNanos[ended.ordinal()] += System.nanoTime() - this.phaseStart;
+            this.phase = null;
+        }
+        BuildEvents.Phase event = this.phaseEvent;
+        event.end();
+        if( event.shouldCommit() ) {
+            event.phase = ended.name();
+            event.species = this.species;
+            event.bytesParsed = this.bytesParsed;
+            event.distancesComputed = getDistancesComputed();
+            event.merges = this.merges;
+            event.commit();
+        }
+        if( this.listener != null ) {
+            this.listener.phaseFinished(ended, this);
+        }
+        return;
+    }
+
+    // parsed
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - bytes bytes of FASTA have been counted as parsed
+    void parsed(long bytes) {
+        this.bytesParsed += bytes;
+        return;
+    }
+
+    // setSpeciesCount
+    // Pre-conditions:
+    //        - count >= 0
+    // Post-conditions:
+    //        - The tree is recorded as built from count species
+    void setSpeciesCount(int count) {
+        this.species = count;
+        return;
+    }
+
+    // matrix
+    // Pre-conditions:
+    //        - distances is the build's distance matrix
+    //        - toCompute if its distances are still to be computed
+    // Post-conditions:
+    //        - The matrix's size has been counted towards the peak, and its
+    //          distances as still needed if toCompute
+    void matrix(DistanceMatrix distances, boolean toCompute) {
+        this.peakMatrixBytes = Math.max(this.peakMatrixBytes, distances.bytes());
+        this.distancesNeeded = toCompute ? distances.entries() : 0;
+        return;
+    }
+
+    // computed
+    // Pre-conditions:
+    //        - None (may be called from several threads at once)
+    // Post-conditions:
+    //        - count more distances have been counted as computed
+    void computed(long count) {
+        this.distancesComputed.addAndGet(count);
+        report();
+        return;
+    }
+
+    // merged
+    // Pre-conditions:
+    //        - The engine has just joined two trees
+    // Post-conditions:
+    //        - The merge has been counted
+    void merged() {
+        this.merges++;
+        report();
+        return;
+    }
+
+    // finished
+    // Pre-conditions:
+    //        - The tree has been built and no phase is running
+    // Post-conditions:
+    //        - The build's event has been recorded and the listener told
+    void finished() {
+        this.buildEnd = System.nanoTime();
+        this.buildEvent.end();
+        if( this.buildEvent.shouldCommit() ) {
+            this.buildEvent.species = this.species;
+            this.buildEvent.bytesParsed = this.bytesParsed;
+            this.buildEvent.distancesComputed = getDistancesComputed();
+            this.buildEvent.distancesPerSecond = getDistancesPerSecond();
+            this.buildEvent.merges = this.merges;
+            this.buildEvent.peakMatrixBytes = this.peakMatrixBytes;
+            this.buildEvent.commit();
+        }
+        if( this.listener != null ) {
+            this.listener.buildFinished(this);
+        }
+        return;
+    }
+
+    // report
+    // Pre-conditions:
+    //        - None (may be called from several threads at once)
+    // Post-conditions:
+    //        - If REPORT_INTERVAL has passed since the last report, one
+    //          calling thread has recorded a progress event and told the
+    //          listener
+    private void report() {
+        long now = System.nanoTime();
+        long next = this.nextReport.get();
+        if( now < next || !this.nextReport.compareAndSet(next, now + REPORT_INTERVAL) ) {
+            return;
+        }
+        BuildPhase current = this.phase;
+        if( current == null ) {
+            return;
+        }
+        synchronized( this.nextReport ) {
+            BuildEvents.Progress event = new BuildEvents.Progress();
+            if( event.shouldCommit() ) {
+                event.phase = current.name();
+                event.distancesComputed = getDistancesComputed();
+                event.merges = this.merges;
+                event.forestSize = getForestSize();
+                event.estimatedRemaining = getEstimatedRemainingNanos();
+                event.commit();
+            }
+            if( this.listener != null ) {
+                this.listener.progress(current, this);
+            }
+        }
+        return;
+    }
+}
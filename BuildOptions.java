@@ -0,0 +1,216 @@
+/* 
+ * BuildOptions.java
+ *
+ * Collects the settings that control how a PhyloTree is built.
+ * The defaults reproduce the behavior described in the assignment.
+ *
+ */
+
+import java.io.File;
+
+public class BuildOptions {
+    private ClusteringEngine engine;      // Joins the species forest into a single tree
+    private boolean singlePrecision;      // Store distances as floats instead of doubles
+    private boolean offHeap;              // Store distances in direct buffers instead of arrays
+    private int parallelism;              // Threads used to compute the distance matrix
+    private boolean compact;              // Build a CompactTree instead of linked nodes
+    private DistanceCache distanceCache;  // Where distance matrices are kept between builds (or null)
+    private File outOfCoreDirectory;      // Where the distance matrix is kept out of core (or null)
+    private BuildListener listener;       // Told how builds are going (or null)
+
+    // CONSTRUCTOR
+
+    // BuildOptions
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Options with the default settings have been created
+    public BuildOptions() {
+        this.engine = new NearestNeighborChainEngine();
+        this.parallelism = Runtime.getRuntime().availableProcessors();
+        return;
+    }
+
+    // ACCESSORS
+
+    // getEngine
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the clustering engine
+    public ClusteringEngine getEngine() {
+        return this.engine;
+    }
+
+    // isSinglePrecision
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns true if the distance matrix stores floats
+    public boolean isSinglePrecision() {
+        return this.singlePrecision;
+    }
+
+    // isOffHeap
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns true if the distance matrix is stored off-heap
+    public boolean isOffHeap() {
+        return this.offHeap;
+    }
+
+    // getParallelism
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the number of threads used to compute the distance matrix
+    public int getParallelism() {
+        return this.parallelism;
+    }
+
+    // isCompact
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns true if the tree is stored as a CompactTree
+    public boolean isCompact() {
+        return this.compact;
+    }
+
+    // getDistanceCache
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the distance matrix cache, or null if there is none
+    public DistanceCache getDistanceCache() {
+        return this.distanceCache;
+    }
+
+    // getOutOfCoreDirectory
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the directory the distance matrix is kept in, or null
+    //          if it is kept in memory
+    public File getOutOfCoreDirectory() {
+        return this.outOfCoreDirectory;
+    }
+
+    // getListener
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the listener told about builds, or null if none
+    public BuildListener getListener() {
+        return this.listener;
+    }
+
+    // MODIFIERS
+
+    // setEngine
+    // Pre-conditions:
+    //        - engine is a non-null ClusteringEngine
+    // Post-conditions:
+    //        - Sets this.engine to engine
+    public void setEngine(ClusteringEngine engine) {
+        this.engine = engine;
+        return;
+    }
+
+    // setSinglePrecision
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Sets this.singlePrecision to singlePrecision
+    // Notes:
+    //        - Halves the matrix size; distances that differ only beyond
+    //          float precision become ties, which can change the tree
+    public void setSinglePrecision(boolean singlePrecision) {
+        this.singlePrecision = singlePrecision;
+        return;
+    }
+
+    // setOffHeap
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Sets this.offHeap to offHeap
+    public void setOffHeap(boolean offHeap) {
+        this.offHeap = offHeap;
+        return;
+    }
+
+    // setParallelism
+    // Pre-conditions:
+    //        - parallelism is at least 1
+    // Post-conditions:
+    //        - Sets this.parallelism to parallelism
+    // Notes:
+    //        - The matrix is the same for any parallelism
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+        return;
+    }
+
+    // setCompact
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Sets this.compact to compact
+    // Notes:
+    //        - The tree is the same either way; a CompactTree does not store
+    //          the non-terminals' labels, which take O(n^2) characters
+    public void setCompact(boolean compact) {
+        this.compact = compact;
+        return;
+    }
+
+    // setDistanceCache
+    // Pre-conditions:
+    //        - distanceCache is a DistanceCache, or null for none
+    // Post-conditions:
+    //        - Sets this.distanceCache to distanceCache
+    // Notes:
+    //        - With a cache, a build from the same species as an earlier one
+    //          maps the earlier matrix instead of computing it (and it is
+    //          stored off-heap whatever isOffHeap says)
+    public void setDistanceCache(DistanceCache distanceCache) {
+        this.distanceCache = distanceCache;
+        return;
+    }
+
+    // setOutOfCoreDirectory
+    // Pre-conditions:
+    //        - directory is a writable directory, or null to keep the
+    //          distance matrix in memory
+    // Post-conditions:
+    //        - Sets this.outOfCoreDirectory to directory
+    // Notes:
+    //        - The matrix is kept in a memory-mapped scratch file there (see
+    //          DistanceMatrix.createMapped), so it can be larger than memory;
+    //          isOffHeap is ignored
+    //        - Best used with a RowMinimumEngine, which reads and writes few
+    //          rows per join
+    //        - The distance cache is not used: a cached matrix is mapped
+    //          copy-on-write, which would keep every row the engine updates
+    //          in memory
+    public void setOutOfCoreDirectory(File directory) {
+        this.outOfCoreDirectory = directory;
+        return;
+    }
+
+    // setListener
+    // Pre-conditions:
+    //        - listener is a BuildListener, or null for none
+    // Post-conditions:
+    //        - Sets this.listener to listener
+    // Notes:
+    //        - Every build with these options tells listener how it is going
+    //          (see BuildListener); builds sharing the options, e.g. in a
+    //          BatchBuilder, may call it from several threads at once
+    public void setListener(BuildListener listener) {
+        this.listener = listener;
+        return;
+    }
+}
@@ -0,0 +1,20 @@
+/*
+ * BuildPhase.java
+ *
+ * The phases of building a PhyloTree, in the order they run.  See
+ * BuildMetrics.
+ *
+ *   PARSE       reading the FASTA file (only when building from a file)
+ *   DISTANCES   computing the distance matrix (or getting it from the
+ *               DistanceCache)
+ *   CLUSTERING  joining the species into a tree with the ClusteringEngine
+ *   INDEXING    indexing the tree's nodes for queries
+ *
+ */
+
+public enum BuildPhase {
+    PARSE,
+    DISTANCES,
+    CLUSTERING,
+    INDEXING
+}
@@ -0,0 +1,58 @@
+/* 
+ * ClusteringEngine.java
+ *
+ * Defines the agglomerative clustering step used by PhyloTree.buildTree
+ *
+ * An engine receives a forest of single-species trees together with the
+ * pairwise distances between them, and repeatedly joins two trees until a
+ * single tree remains.  Every engine must follow the conventions described
+ * in the assignment:
+ *
+ *   - ties between equally good pairs are broken by taking the pair whose
+ *     joined label is alphabetically least
+ *   - the alphabetically earlier tree becomes the left child, and the new
+ *     node is labelled leftlabel + "+" + rightlabel
+ *   - the new node's distanceToChild is half of the distance between the
+ *     two joined trees
+ *
+ * Which pair is joined next, and how the distances to the new tree are
+ * computed, is up to the engine.  The assignment's UPGMA joins the two
+ * closest trees and takes the size-weighted average of the distances to
+ * the two joined trees (see AgglomerativeEngine and Linkage for the
+ * others); NeighborJoiningEngine builds Neighbor-Joining trees.
+ *
+ */
+
+public interface ClusteringEngine {
+
+    // cluster
+    // Pre-conditions:
+    //        - leaves holds one single-node tree per species
+    //        - distances is a leaves.length x leaves.length matrix, where
+    //          distances.get(i,j) is the distance between leaves[i] and leaves[j]
+    // Post-conditions:
+    //        - Returns the root of the tree built from all leaves
+    //          (null if leaves is empty)
+    //        - The contents of distances are unspecified; engines reuse the
+    //          rows of joined trees for the trees that replace them
+    public PhyloTreeNode cluster(PhyloTreeNode[] leaves, DistanceMatrix distances);
+
+    // cluster
+    // Pre-conditions:
+    //        - As above
+    //        - metrics is the build's metrics, or null
+    // Post-conditions:
+    //        - As above, with each join counted in metrics as it is made
+    // Notes:
+    //        - By default all the joins are counted once the tree is built;
+    //          engines override this to count them as they go
+    default PhyloTreeNode cluster(PhyloTreeNode[] leaves, DistanceMatrix distances, BuildMetrics metrics) {
+        PhyloTreeNode root = cluster(leaves, distances);
+        if( metrics != null ) {
+            for( int i=1; i<leaves.length; i++ ) {
+                metrics.merged();
+            }
+        }
+        return root;
+    }
+}
@@ -0,0 +1,476 @@
+/*
+ * CompactTree.java
+ *
+ * A phylogenetic tree stored as parallel arrays indexed by node number,
+ * instead of as LinkedTreeNode objects.
+ *
+ * A tree being built numbers its leaves 0..n-1 in species order, and each
+ * join appends a new non-terminal after them; a tree read back from a
+ * TreeFile keeps the file's numbering.  A non-terminal's label is the labels of its
+ * leaves, left to right, joined with "+", so it is not stored: label
+ * builds it on demand, and compareJoined compares two (joined) labels by
+ * walking the leaves' names, stopping at the first difference as
+ * String.compareTo would.  This keeps the whole tree in O(n) memory,
+ * where the linked labels take O(n^2) characters.
+ *
+ * node(id) returns a PhyloTreeNode view of a node, so every PhyloTree
+ * operation works on either representation.  There is one view per node,
+ * created the first time it is asked for, so views can be compared with ==.
+ * Views are read-only, and hold nothing but their node's id.  Code that
+ * walks the whole tree, such as LcaIndex, reads the arrays through the
+ * id accessors below instead, so no views are created for it.
+ *
+ */
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+public class CompactTree {
+    private Species[] species;            // species[id] for the leaves (null for non-terminals)
+    private int[] parent;                 // parent[id] is the parent's id (-1 for the root)
+    private int[] left;                   // left[id] is the left child's id (-1 for leaves)
+    private int[] right;                  // right[id] is the right child's id (-1 for leaves)
+    private int[] firstLeaf;              // firstLeaf[id] is the leftmost leaf below id
+    private int[] numLeafs;               // numLeafs[id] is the number of leaves below id
+    private int[] height;                 // height[id] is the height of the subtree at id
+    private double[] distanceToChild;     // distanceToChild[id] is the edge weight to id's children
+    private double[] weightedHeight;      // weightedHeight[id] is the weighted height of the subtree at id
+    private int size;                     // Number of nodes so far
+    private int root;                     // Id of the last node joined (the root, once complete)
+    private int[] names;                  // Hash table of leaf id + 1 by species name (0 if empty)
+    private AtomicReferenceArray<PhyloTreeNode> views;
+    private LabelCursor cursor1 = new LabelCursor();
+    private LabelCursor cursor2 = new LabelCursor();
+
+    // CONSTRUCTOR
+
+    // CompactTree
+    // Pre-conditions:
+    //        - species holds at least one species
+    // Post-conditions:
+    //        - A forest of one leaf per species has been created, with room
+    //          for the n - 1 joins that make it a tree
+    public CompactTree(Species[] species) {
+        int n = species.length;
+        int capacity = Math.max(1, 2 * n - 1);
+        this.species = new Species[capacity];
+        this.parent = new int[capacity];
+        this.left = new int[capacity];
+        this.right = new int[capacity];
+        this.firstLeaf = new int[capacity];
+        this.numLeafs = new int[capacity];
+        this.height = new int[capacity];
+        this.distanceToChild = new double[capacity];
+        this.weightedHeight = new double[capacity];
+        this.views = new AtomicReferenceArray<PhyloTreeNode>(capacity);
+        for( int id=0; id<n; id++ ) {
+            this.species[id] = species[id];
+            this.parent[id] = -1;
+            this.left[id] = -1;
+            this.right[id] = -1;
+            this.firstLeaf[id] = id;
+            this.numLeafs[id] = 1;
+        }
+        this.size = n;
+        this.root = n - 1;
+        this.names = buildNames(this.species);
+        return;
+    }
+
+    // CompactTree
+    // Pre-conditions:
+    //        - parent, left, right and distanceToChild describe a complete
+    //          tree rooted at node 0 in which every child's id is larger than
+    //          its parent's (e.g. ids in pre-order); species[id] is set
+    //          exactly for the leaves
+    //        - names is the table getNames() returned for the same tree, or null
+    // Post-conditions:
+    //        - A CompactTree over the given arrays (not copies) has been
+    //          created, with its cached aggregates computed bottom-up
+    CompactTree(Species[] species, int[] parent, int[] left, int[] right, double[] distanceToChild, int[] names) {
+        int capacity = parent.length;
+        this.species = species;
+        this.parent = parent;
+        this.left = left;
+        this.right = right;
+        this.distanceToChild = distanceToChild;
+        this.firstLeaf = new int[capacity];
+        this.numLeafs = new int[capacity];
+        this.height = new int[capacity];
+        this.weightedHeight = new double[capacity];
+        this.views = new AtomicReferenceArray<PhyloTreeNode>(capacity);
+        for( int id=capacity-1; id>=0; id-- ) {
+            int l = left[id];
+            int r = right[id];
+            if( l < 0 ) {
+                this.firstLeaf[id] = id;
+                this.numLeafs[id] = 1;
+            } else {
+                this.firstLeaf[id] = this.firstLeaf[l];
+                this.numLeafs[id] = this.numLeafs[l] + this.numLeafs[r];
+                this.height[id] = 1 + Math.max(this.height[l], this.height[r]);
+                double leftW = distanceToChild[id] + this.weightedHeight[l];
+                double rightW = distanceToChild[id] + this.weightedHeight[r];
+                this.weightedHeight[id] = (rightW >= leftW) ? rightW : leftW;
+            }
+        }
+        this.size = capacity;
+        this.root = 0;
+        this.names = (names != null) ? names : buildNames(species);
+        return;
+    }
+
+    // ACCESSORS
+
+    // size
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the number of nodes created so far
+    public int size() {
+        return this.size;
+    }
+
+    // getRoot
+    // Pre-conditions:
+    //        - All n - 1 joins have been made
+    // Post-conditions:
+    //        - Returns the view of the root (null for an empty tree)
+    public PhyloTreeNode getRoot() {
+        return (this.size == 0) ? null : node(this.root);
+    }
+
+    // getNames
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the hash table find uses to look up species names: an
+    //          open-addressing table of leaf id + 1 (0 for an empty slot),
+    //          probed linearly from slot(name.hashCode())
+    int[] getNames() {
+        return this.names;
+    }
+
+    // rootId, leftId, rightId, distanceToChild
+    // Pre-conditions:
+    //        - 0 <= id < size()
+    // Post-conditions:
+    //        - Return the id of the root (see getRoot), of node id's left and
+    //          right children (-1 for a leaf), and node id's edge weight to
+    //          its children
+    int rootId() {
+        return this.root;
+    }
+
+    int leftId(int id) {
+        return this.left[id];
+    }
+
+    int rightId(int id) {
+        return this.right[id];
+    }
+
+    double distanceToChild(int id) {
+        return this.distanceToChild[id];
+    }
+
+    // node
+    // Pre-conditions:
+    //        - -1 <= id < size()
+    // Post-conditions:
+    //        - Returns the view of node id (null for -1)
+    public PhyloTreeNode node(int id) {
+        if( id < 0 ) {
+            return null;
+        }
+        PhyloTreeNode view = this.views.get(id);
+        if( view == null ) {
+            this.views.compareAndSet(id, null, new Node(id));
+            view = this.views.get(id);
+        }
+        return view;
+    }
+
+    // label
+    // Pre-conditions:
+    //        - 0 <= id < size()
+    // Post-conditions:
+    //        - Returns the node's label, built from its leaves' names
+    public String label(int id) {
+        if( this.left[id] < 0 ) {
+            return this.species[id].getName();
+        }
+        StringBuilder sb = new StringBuilder();
+        LabelCursor cursor = new LabelCursor();
+        cursor.reset(id, -1);
+        for( int c = cursor.next(); c >= 0; c = cursor.next() ) {
+            sb.append((char)c);
+        }
+        return sb.toString();
+    }
+
+    // find
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the view of the node labelled label, or null if there
+    //          is none
+    // Notes:
+    //        - The node is found from the label's first species by climbing
+    //          to the ancestor with as many leaves as the label names, then
+    //          checked leaf by leaf, in O(length of label) time
+    public PhyloTreeNode find(String label) {
+        String[] names = label.split("\\+", -1);
+        int first = leafId(names[0]);
+        if( first < 0 ) {
+            return null;
+        }
+        int id = first;
+        while( id >= 0 && this.numLeafs[id] < names.length ) {
+            id = this.parent[id];
+        }
+        if( id < 0 || this.numLeafs[id] != names.length || this.firstLeaf[id] != first ) {
+            return null;
+        }
+        LabelCursor cursor = new LabelCursor();
+        cursor.reset(id, -1);
+        for( int i=0; i<label.length(); i++ ) {
+            if( cursor.next() != label.charAt(i) ) {
+                return null;
+            }
+        }
+        return (cursor.next() < 0) ? node(id) : null;
+    }
+
+    // MODIFIER
+
+    // join
+    // Pre-conditions:
+    //        - leftId and rightId are the roots of two distinct trees of the
+    //          forest, leftId's label being alphabetically earlier
+    // Post-conditions:
+    //        - A new node with the given children and edge weight has been
+    //          created, and its view is returned
+    public PhyloTreeNode join(int leftId, int rightId, double distance) {
+        int id = this.size++;
+        this.root = id;
+        this.parent[id] = -1;
+        this.left[id] = leftId;
+        this.right[id] = rightId;
+        this.parent[leftId] = id;
+        this.parent[rightId] = id;
+        this.firstLeaf[id] = this.firstLeaf[leftId];
+        this.numLeafs[id] = this.numLeafs[leftId] + this.numLeafs[rightId];
+        this.height[id] = 1 + Math.max(this.height[leftId], this.height[rightId]);
+        this.distanceToChild[id] = distance;
+        // same order as PhyloTreeNode, so both representations agree exactly
+        double leftW = distance + this.weightedHeight[leftId];
+        double rightW = distance + this.weightedHeight[rightId];
+        this.weightedHeight[id] = (rightW >= leftW) ? rightW : leftW;
+        return node(id);
+    }
+
+    // compareJoined
+    // Pre-conditions:
+    //        - left1, right1, left2 and right2 are views of this tree;
+    //          right1 and right2 may be null
+    // Post-conditions:
+    //        - Compares label(left1) + "+" + label(right1) to
+    //          label(left2) + "+" + label(right2) (just label(left) where
+    //          right is null), returning a negative number, zero, or a
+    //          positive number as the first is less than, equal to, or
+    //          greater than the second
+    // Notes:
+    //        - Reuses two cursors, so only one thread may compare at a time
+    //          (the engines compare while building, on one thread)
+    int compareJoined(PhyloTreeNode left1, PhyloTreeNode right1, PhyloTreeNode left2, PhyloTreeNode right2) {
+        this.cursor1.reset(idOf(left1), idOf(right1));
+        this.cursor2.reset(idOf(left2), idOf(right2));
+        while( true ) {
+            int c1 = this.cursor1.next();
+            int c2 = this.cursor2.next();
+            if( c1 != c2 ) {
+                return c1 - c2;
+            }
+            if( c1 < 0 ) {
+                return 0;
+            }
+        }
+    }
+
+    // leafId
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the id of the leaf named name, or -1 if there is none
+    private int leafId(String name) {
+        int mask = this.names.length - 1;
+        for( int slot = slot(name.hashCode(), mask); this.names[slot] != 0; slot = (slot + 1) & mask ) {
+            int id = this.names[slot] - 1;
+            if( this.species[id].getName().equals(name) ) {
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    // STATIC
+
+    // buildNames
+    // Pre-conditions:
+    //        - species[id] is set exactly for the leaves
+    // Post-conditions:
+    //        - Returns the name table of getNames for them; of several leaves
+    //          with the same name, the one with the largest id is kept
+    private static int[] buildNames(Species[] species) {
+        int capacity = 2;
+        while( capacity < 2 * species.length ) {
+            capacity *= 2;
+        }
+        int[] names = new int[capacity];
+        int mask = capacity - 1;
+        for( int id=0; id<species.length; id++ ) {
+            if( species[id] == null ) {
+                continue;
+            }
+            String name = species[id].getName();
+            int slot = slot(name.hashCode(), mask);
+            while( names[slot] != 0 && !species[names[slot] - 1].getName().equals(name) ) {
+                slot = (slot + 1) & mask;
+            }
+            names[slot] = id + 1;
+        }
+        return names;
+    }
+
+    // slot
+    // Pre-conditions:
+    //        - mask is one less than a power of two
+    // Post-conditions:
+    //        - Returns the first slot to probe for a name with the given hash
+    private static int slot(int hash, int mask) {
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    // treeOf
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the CompactTree node is a view of, or null if node is
+    //          a LinkedTreeNode (or null)
+    static CompactTree treeOf(PhyloTreeNode node) {
+        return (node instanceof Node) ? ((Node)node).tree() : null;
+    }
+
+    // idOf
+    // Pre-conditions:
+    //        - node is a view of this tree, or null
+    // Post-conditions:
+    //        - Returns its id (-1 for null)
+    static int idOf(PhyloTreeNode node) {
+        return (node == null) ? -1 : ((Node)node).id;
+    }
+
+    // Reads the characters of a label, or of two labels joined by "+",
+    // one leaf name at a time
+    private class LabelCursor {
+        private int first;                // The subtree being read
+        private int second;               // The subtree to read after it (-1 if none)
+        private int leaf;                 // The leaf whose name is being read
+        private String name;              // Its name (null at the end)
+        private int position;             // The next character of name
+
+        void reset(int first, int second) {
+            this.first = first;
+            this.second = second;
+            this.leaf = firstLeaf[first];
+            this.name = species[this.leaf].getName();
+            this.position = 0;
+        }
+
+        // returns the next character, or -1 at the end
+        int next() {
+            if( this.name == null ) {
+                return -1;
+            }
+            if( this.position < this.name.length() ) {
+                return this.name.charAt(this.position++);
+            }
+            // climb while leaf is the last leaf of its parent, then step to
+            // the leftmost leaf of the next right subtree
+            int node = this.leaf;
+            while( node != this.first && right[parent[node]] == node ) {
+                node = parent[node];
+            }
+            if( node != this.first ) {
+                this.leaf = firstLeaf[right[parent[node]]];
+            } else if( this.second >= 0 ) {
+                this.first = this.second;
+                this.second = -1;
+                this.leaf = firstLeaf[this.first];
+            } else {
+                this.name = null;
+                return -1;
+            }
+            this.name = species[this.leaf].getName();
+            this.position = 0;
+            return '+';
+        }
+    }
+
+    // A read-only PhyloTreeNode view of one node of the tree
+    private class Node extends PhyloTreeNode {
+        private final int id;
+
+        Node(int id) {
+            this.id = id;
+        }
+
+        CompactTree tree() {
+            return CompactTree.this;
+        }
+
+        public PhyloTreeNode getParent() {
+            return node(parent[this.id]);
+        }
+
+        public PhyloTreeNode getLeftChild() {
+            return node(left[this.id]);
+        }
+
+        public PhyloTreeNode getRightChild() {
+            return node(right[this.id]);
+        }
+
+        public String getLabel() {
+            return label(this.id);
+        }
+
+        public Species getSpecies() {
+            return species[this.id];
+        }
+
+        public double getDistanceToChild() {
+            return distanceToChild[this.id];
+        }
+
+        public int getNumLeafs() {
+            return numLeafs[this.id];
+        }
+
+        public int getHeight() {
+            return height[this.id];
+        }
+
+        public double getWeightedHeight() {
+            return weightedHeight[this.id];
+        }
+
+        public boolean isLeaf() {
+            return left[this.id] < 0;
+        }
+
+        public void setParent(PhyloTreeNode parent) {
+            throw new UnsupportedOperationException("CompactTree nodes are read-only");
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * DistanceCache.java
+ *
+ * Keeps the distance matrices of previous builds on disk, so that building
+ * a tree from the same sequences again (e.g. with another printing depth
+ * or output format) can skip straight to clustering.
+ *
+ * A matrix is keyed by a SHA-256 hash of the species' names and sequences,
+ * in order, and by its precision.  Each entry is one file in the cache
+ * directory:
+ *
+ *   int magic ("PHDM"), int version, int size, int bytes per entry,
+ *   then the matrix entries in condensed order (see DistanceMatrix.write)
+ *
+ * A cached matrix is memory-mapped copy-on-write rather than read, so a
+ * hit costs almost nothing up front.  Files are written under a temporary
+ * name and renamed into place, so readers never see a partial entry.  When
+ * the files add up to more than the size limit, the least recently used
+ * ones (by modification time, which is updated on every hit) are deleted.
+ *
+ * The cache only ever speeds builds up: if a file cannot be read or
+ * written, the matrix is simply computed.
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+public class DistanceCache {
+    public static final int MAGIC = 0x4D444850;   // "PHDM", little-endian
+    public static final int VERSION = 1;
+    private static final int HEADER = 16;         // Bytes before the entries
+    private static final String SUFFIX = ".dm";
+
+    private File directory;               // Where the matrices are kept
+    private long maxBytes;                // Total size of the files kept
+
+    // CONSTRUCTOR
+
+    // DistanceCache
+    // Pre-conditions:
+    //        - directory is a directory (it is created if missing)
+    //        - maxBytes is the most disk space the cache may use
+    // Post-conditions:
+    //        - A cache in the given directory has been created
+    public DistanceCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        return;
+    }
+
+    // ACCESSORS
+
+    // get
+    // Pre-conditions:
+    //        - key is the key of species, as returned by key
+    // Post-conditions:
+    //        - Returns the cached matrix of the species, mapped from its
+    //          file and marked as just used, or null if it is not cached
+    public DistanceMatrix get(String key, int size, boolean singlePrecision) {
+        File file = fileFor(key, singlePrecision);
+        if( !file.isFile() ) {
+            return null;
+        }
+        int width = singlePrecision ? 4 : 8;
+        try {
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+                while( header.hasRemaining() ) {
+                    if( channel.read(header) < 0 ) {
+                        break;
+                    }
+                }
+                header.flip();
+                if( header.remaining() < HEADER || header.getInt() != MAGIC || header.getInt() != VERSION
+                        || header.getInt() != size || header.getInt() != width
+                        || channel.size() != HEADER + DistanceMatrix.entries(size) * width ) {
+                    return null;
+                }
+                DistanceMatrix matrix = DistanceMatrix.map(channel, HEADER, size, singlePrecision);
+                file.setLastModified(System.currentTimeMillis());
+                return matrix;
+            } finally {
+                channel.close();
+            }
+        } catch( IOException ex ) {
+            return null;
+        }
+    }
+
+    // MODIFIER
+
+    // put
+    // Pre-conditions:
+    //        - key is the key of the species matrix was computed from
+    // Post-conditions:
+    //        - matrix has been saved under key (unless the cache cannot be
+    //          written), and the least recently used files have been deleted
+    //          until the cache fits in its size limit
+    public void put(String key, DistanceMatrix matrix, boolean singlePrecision) {
+        File file = fileFor(key, singlePrecision);
+        Path temporary = null;
+        try {
+            // a fresh, uniquely named file, so concurrent puts of the same key
+            // (from any process) never write to the same temporary file
+            Files.createDirectories(this.directory.toPath());
+            temporary = Files.createTempFile(this.directory.toPath(), file.getName() + ".", ".tmp");
+            FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+            try {
+                ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(MAGIC).putInt(VERSION).putInt(matrix.size()).putInt(singlePrecision ? 4 : 8);
+                header.flip();
+                while( header.hasRemaining() ) {
+                    channel.write(header);
+                }
+                matrix.write(channel, singlePrecision);
+            } finally {
+                channel.close();
+            }
+            Files.move(temporary, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            evict(file);
+        } catch( IOException ex ) {
+            if( temporary != null ) {
+                temporary.toFile().delete();
+            }
+        }
+        return;
+    }
+
+    // evict
+    // Pre-conditions:
+    //        - keep is the file just written
+    // Post-conditions:
+    //        - The least recently used files other than keep have been
+    //          deleted until the cache fits in its size limit (or only keep
+    //          is left)
+    private void evict(File keep) {
+        File[] files = this.directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if( files == null ) {
+            return;
+        }
+        long total = 0;
+        for( int i=0; i<files.length; i++ ) {
+            total += files[i].length();
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for( int i=0; i<files.length && total > this.maxBytes; i++ ) {
+            if( files[i].equals(keep) ) {
+                continue;
+            }
+            long length = files[i].length();
+            if( files[i].delete() ) {
+                total -= length;
+            }
+        }
+        return;
+    }
+
+    // fileFor
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the file that holds the matrix for key
+    private File fileFor(String key, boolean singlePrecision) {
+        return new File(this.directory, key + (singlePrecision ? ".f32" : ".f64") + SUFFIX);
+    }
+
+    // STATIC
+
+    // key
+    // Pre-conditions:
+    //        - species holds the species of a build, in matrix row order
+    // Post-conditions:
+    //        - Returns the hex SHA-256 hash of their names and sequences
+    public static String key(Species[] species) {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch( NoSuchAlgorithmException ex ) {
+            throw new IllegalStateException(ex);    // every JDK has SHA-256
+        }
+        for( Species s : species ) {
+            s.digest(md);
+        }
+        StringBuilder hex = new StringBuilder();
+        for( byte b : md.digest() ) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
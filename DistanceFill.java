@@ -0,0 +1,179 @@
+/*
+ * DistanceFill.java
+ *
+ * Fills a DistanceMatrix with the pairwise Species.distance of a set of
+ * species, in parallel.
+ *
+ * The upper triangle is cut into TILE x TILE tiles, so that each task
+ * compares a small group of sequences against another small group while
+ * both stay in cache.  Tiles are numbered row by row and the range of tile
+ * numbers is split in half recursively across a ForkJoinPool.  Every entry
+ * is computed exactly once, by a single task, so the result does not
+ * depend on scheduling or on the parallelism used.  Each tile counts its
+ * distances towards the build's BuildMetrics, if any.
+ *
+ * The pools are shared: pool(parallelism) creates one pool per level of
+ * parallelism the first time it is asked for, and keeps it, so building
+ * many trees (see BatchBuilder) does not start and stop threads for each.
+ * BatchQuery runs its tasks in the same pools.
+ *
+ */
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+@SuppressWarnings("serial")   // tasks are never serialized
+public class DistanceFill extends RecursiveAction {
+    static final int TILE = 32;               // Species per tile side
+    private static final int TILES_PER_TASK = 4;   // Tiles computed without splitting further
+    private static final ConcurrentHashMap<Integer, ForkJoinPool> POOLS = new ConcurrentHashMap<Integer, ForkJoinPool>();
+
+    private Species[] species;
+    private DistanceMatrix matrix;
+    private int tilesPerSide;
+    private long firstTile;
+    private long tileCount;
+    private BuildMetrics metrics;   // Counts the distances computed (or null)
+
+    // DistanceFill
+    // Pre-conditions:
+    //        - matrix is species.length x species.length
+    //        - [firstTile, firstTile + tileCount) is a range of tile numbers
+    //        - metrics is the build's metrics, or null
+    // Post-conditions:
+    //        - A task that fills the given tiles has been created
+    private DistanceFill(Species[] species, DistanceMatrix matrix, long firstTile, long tileCount, BuildMetrics metrics) {
+        this.species = species;
+        this.matrix = matrix;
+        this.tilesPerSide = (species.length + TILE - 1) / TILE;
+        this.firstTile = firstTile;
+        this.tileCount = tileCount;
+        this.metrics = metrics;
+    }
+
+    // fill
+    // Pre-conditions:
+    //        - matrix is species.length x species.length
+    //        - parallelism is the number of threads to use (at least 1)
+    // Post-conditions:
+    //        - matrix.get(i,j) is Species.distance(species[i], species[j])
+    //          for every pair i != j
+    public static void fill(Species[] species, DistanceMatrix matrix, int parallelism) {
+        fill(species, matrix, parallelism, null);
+        return;
+    }
+
+    // fill
+    // Pre-conditions:
+    //        - As above
+    //        - metrics is the build's metrics, or null
+    // Post-conditions:
+    //        - As above, with every distance counted in metrics as it is
+    //          computed
+    static void fill(Species[] species, DistanceMatrix matrix, int parallelism, BuildMetrics metrics) {
+        long tilesPerSide = (species.length + TILE - 1) / TILE;
+        DistanceFill task = new DistanceFill(species, matrix, 0, tilesPerSide * (tilesPerSide + 1) / 2, metrics);
+        if( parallelism <= 1 ) {
+            task.compute();
+            return;
+        }
+        pool(parallelism).invoke(task);
+        return;
+    }
+
+    // pool
+    // Pre-conditions:
+    //        - parallelism is at least 2
+    // Post-conditions:
+    //        - Returns the shared pool of parallelism threads, creating it
+    //          if this is the first time it is asked for
+    // Notes:
+    //        - The pools' threads are daemons, and idle ones time out, so
+    //          the pools are never shut down
+    static ForkJoinPool pool(int parallelism) {
+        ForkJoinPool pool = POOLS.get(parallelism);
+        if( pool == null ) {
+            pool = POOLS.computeIfAbsent(parallelism, ForkJoinPool::new);
+        }
+        return pool;
+    }
+
+    // compute
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Every tile in this task's range has been filled
+    protected void compute() {
+        if( this.tileCount <= TILES_PER_TASK ) {
+            fillTiles();
+            return;
+        }
+        long half = this.tileCount / 2;
+        invokeAll(new DistanceFill(this.species, this.matrix, this.firstTile, half, this.metrics),
+                  new DistanceFill(this.species, this.matrix, this.firstTile + half, this.tileCount - half, this.metrics));
+        return;
+    }
+
+    // fillTiles
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Every tile in this task's range has been filled
+    private void fillTiles() {
+        // find the (row, column) of the first tile; row r starts at tile
+        // number r*t - r*(r-1)/2, where t is tilesPerSide
+        int row = 0;
+        int hi = this.tilesPerSide - 1;
+        while( row < hi ) {
+            int mid = (row + hi + 1) >>> 1;
+            if( rowStart(mid) <= this.firstTile ) {
+                row = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        int col = row + (int)(this.firstTile - rowStart(row));
+
+        for( long k=0; k<this.tileCount; k++ ) {
+            fillTile(row, col);
+            col++;
+            if( col == this.tilesPerSide ) {
+                row++;
+                col = row;
+            }
+        }
+        return;
+    }
+
+    // rowStart
+    // Pre-conditions:
+    //        - 0 <= row < tilesPerSide
+    // Post-conditions:
+    //        - Returns the number of the first tile in the given tile row
+    private long rowStart(long row) {
+        return row * this.tilesPerSide - row * (row - 1) / 2;
+    }
+
+    // fillTile
+    // Pre-conditions:
+    //        - tileRow <= tileCol
+    // Post-conditions:
+    //        - Every entry (i,j), i < j, of the tile has been filled, and
+    //          counted in metrics
+    private void fillTile(int tileRow, int tileCol) {
+        int rowEnd = Math.min(this.species.length, (tileRow + 1) * TILE);
+        int colEnd = Math.min(this.species.length, (tileCol + 1) * TILE);
+        long count = 0;
+        for( int i=tileRow*TILE; i<rowEnd; i++ ) {
+            for( int j=Math.max(i + 1, tileCol*TILE); j<colEnd; j++ ) {
+                this.matrix.set(i, j, Species.distance(this.species[i], this.species[j]));
+                count++;
+            }
+        }
+        if( this.metrics != null ) {
+            this.metrics.computed(count);
+        }
+        return;
+    }
+}
@@ -0,0 +1,402 @@
+/*
+ * DistanceMatrix.java
+ *
+ * Defines a symmetric matrix of distances between n trees, addressed by
+ * row index rather than by label.
+ *
+ * Only the entries above the diagonal are stored, one primitive value per
+ * pair, in a single condensed array: row 0 holds (0,1)..(0,n-1), row 1 holds
+ * (1,2)..(1,n-1), and so on.  The diagonal is always 0.  Values can be kept
+ * as doubles or as floats (half the memory, about 7 significant digits),
+ * either on the Java heap or off-heap in direct ByteBuffers, which keeps
+ * large matrices out of the garbage collector's way.
+ *
+ * Storage is split into chunks, so matrices with more than 2^31 entries
+ * are supported.
+ *
+ * A matrix can be written to a file as its entries in condensed order,
+ * little-endian, and mapped back from such a file (see DistanceCache).
+ * The mapping is private: changes made to the matrix are never written
+ * back to the file.
+ *
+ * For matrices larger than memory, a matrix can also be kept out of core,
+ * in a memory-mapped scratch file that the operating system pages in and
+ * out.  That file is cut into the same TILE x TILE tiles as DistanceFill
+ * uses, each stored contiguously, so the fill writes the file in order and
+ * reading a whole row (or column) touches one short run in each of n/TILE
+ * tiles instead of one page per entry of the column.
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+public abstract class DistanceMatrix {
+    static final int CHUNK_BITS = 26;                       // Entries per chunk = 2^CHUNK_BITS
+    static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private int size;                     // Number of rows (and columns)
+
+    // CONSTRUCTOR
+
+    // DistanceMatrix
+    // Pre-conditions:
+    //        - size is non-negative
+    // Post-conditions:
+    //        - this.size has been set to size
+    protected DistanceMatrix(int size) {
+        this.size = size;
+        return;
+    }
+
+    // create
+    // Pre-conditions:
+    //        - size is non-negative
+    // Post-conditions:
+    //        - Returns a size x size matrix with every entry 0
+    //        - If singlePrecision, values are stored as floats, else as doubles
+    //        - If offHeap, values are stored in direct ByteBuffers, else in arrays
+    public static DistanceMatrix create(int size, boolean singlePrecision, boolean offHeap) {
+        if( offHeap ) {
+            return new BufferMatrix(size, singlePrecision);
+        } else if( singlePrecision ) {
+            return new FloatMatrix(size);
+        } else {
+            return new DoubleMatrix(size);
+        }
+    }
+
+    // map
+    // Pre-conditions:
+    //        - channel is open for reading and writing, and holds the
+    //          entries of a size x size matrix from position on, as written
+    //          by write with the same singlePrecision
+    // Post-conditions:
+    //        - Returns the matrix, mapped copy-on-write from the file: only
+    //          the pages that are changed are copied into memory, and the
+    //          file itself is never changed
+    public static DistanceMatrix map(FileChannel channel, long position, int size, boolean singlePrecision) throws IOException {
+        int width = singlePrecision ? 4 : 8;
+        int[] lengths = chunkLengths(entries(size));
+        ByteBuffer[] chunks = new ByteBuffer[lengths.length];
+        for( int c=0; c<lengths.length; c++ ) {
+            long offset = position + ((long)c << CHUNK_BITS) * width;
+            chunks[c] = channel.map(FileChannel.MapMode.PRIVATE, offset, (long)lengths[c] * width).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return new BufferMatrix(size, singlePrecision, chunks);
+    }
+
+    // createMapped
+    // Pre-conditions:
+    //        - size is non-negative
+    //        - directory is a writable directory with room for the matrix
+    // Post-conditions:
+    //        - Returns a size x size matrix with every entry 0, stored out of
+    //          core in a scratch file in directory, memory-mapped in tiles
+    //        - The file is deleted as soon as it is mapped (or, where a file
+    //          in use cannot be deleted, when the JVM exits)
+    public static DistanceMatrix createMapped(int size, boolean singlePrecision, File directory) throws IOException {
+        int width = singlePrecision ? 4 : 8;
+        int[] lengths = chunkLengths(TiledMatrix.stored(size));
+        ByteBuffer[] chunks = new ByteBuffer[lengths.length];
+        File file = File.createTempFile("distances", ".tiles", directory);
+        RandomAccessFile scratch = new RandomAccessFile(file, "rw");
+        try {
+            scratch.setLength(TiledMatrix.stored(size) * width);
+            FileChannel channel = scratch.getChannel();
+            for( int c=0; c<lengths.length; c++ ) {
+                long offset = ((long)c << CHUNK_BITS) * width;
+                chunks[c] = channel.map(FileChannel.MapMode.READ_WRITE, offset, (long)lengths[c] * width).order(ByteOrder.nativeOrder());
+            }
+        } finally {
+            scratch.close();
+            if( !file.delete() ) {
+                file.deleteOnExit();
+            }
+        }
+        return new TiledMatrix(size, singlePrecision, chunks);
+    }
+
+    // ACCESSORS
+
+    // size
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the number of rows
+    public int size() {
+        return this.size;
+    }
+
+    // entries
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the number of stored entries, size*(size-1)/2
+    public long entries() {
+        return entries(this.size);
+    }
+
+    // bytes
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the number of bytes used to store the entries
+    public abstract long bytes();
+
+    // get
+    // Pre-conditions:
+    //        - 0 <= i, j < size()
+    // Post-conditions:
+    //        - Returns the distance between rows i and j (0 if i == j)
+    public double get(int i, int j) {
+        if( i == j ) {
+            return 0.0;
+        }
+        return load(index(i, j));
+    }
+
+    // write
+    // Pre-conditions:
+    //        - channel is open for writing
+    // Post-conditions:
+    //        - The entries have been written to channel at its current
+    //          position, in condensed order, little-endian, as floats if
+    //          singlePrecision, else as doubles
+    public void write(FileChannel channel, boolean singlePrecision) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+        for( int i=0; i<this.size; i++ ) {
+            for( int j=i+1; j<this.size; j++ ) {
+                if( buffer.remaining() < 8 ) {
+                    buffer.flip();
+                    while( buffer.hasRemaining() ) {
+                        channel.write(buffer);
+                    }
+                    buffer.clear();
+                }
+                if( singlePrecision ) {
+                    buffer.putFloat((float)load(index(i, j)));
+                } else {
+                    buffer.putDouble(load(index(i, j)));
+                }
+            }
+        }
+        buffer.flip();
+        while( buffer.hasRemaining() ) {
+            channel.write(buffer);
+        }
+        return;
+    }
+
+    // MODIFIER
+
+    // set
+    // Pre-conditions:
+    //        - 0 <= i, j < size() and i != j
+    // Post-conditions:
+    //        - The distance between rows i and j (and j and i) is now value
+    public void set(int i, int j, double value) {
+        store(index(i, j), value);
+        return;
+    }
+
+    // index
+    // Pre-conditions:
+    //        - 0 <= i, j < size() and i != j
+    // Post-conditions:
+    //        - Returns the position of entry (i,j) in the condensed order
+    //          (or, for an out-of-core matrix, in its tiles)
+    protected long index(int i, int j) {
+        if( i > j ) {
+            int swap = i;
+            i = j;
+            j = swap;
+        }
+        return (long)i * (2L*this.size - i - 1) / 2 + (j - i - 1);
+    }
+
+    // load
+    // Pre-conditions:
+    //        - 0 <= index < entries()
+    // Post-conditions:
+    //        - Returns the entry stored at index
+    protected abstract double load(long index);
+
+    // store
+    // Pre-conditions:
+    //        - 0 <= index < entries()
+    // Post-conditions:
+    //        - The entry at index is now value
+    protected abstract void store(long index, double value);
+
+    // STATIC
+
+    // entries
+    // Pre-conditions:
+    //        - size is non-negative
+    // Post-conditions:
+    //        - Returns the number of entries stored for a size x size matrix
+    static long entries(int size) {
+        return (long)size * (size - 1) / 2;
+    }
+
+    // chunkLengths
+    // Pre-conditions:
+    //        - count is non-negative
+    // Post-conditions:
+    //        - Returns the lengths of the chunks needed to hold count entries
+    static int[] chunkLengths(long count) {
+        int[] lengths = new int[(int)((count + CHUNK_SIZE - 1) >>> CHUNK_BITS)];
+        for( int c=0; c<lengths.length; c++ ) {
+            lengths[c] = (int)Math.min(CHUNK_SIZE, count - ((long)c << CHUNK_BITS));
+        }
+        return lengths;
+    }
+
+    // IMPLEMENTATIONS
+
+    // Doubles in on-heap arrays
+    private static class DoubleMatrix extends DistanceMatrix {
+        private double[][] chunks;
+
+        DoubleMatrix(int size) {
+            super(size);
+            int[] lengths = chunkLengths(entries(size));
+            this.chunks = new double[lengths.length][];
+            for( int c=0; c<lengths.length; c++ ) {
+                this.chunks[c] = new double[lengths[c]];
+            }
+        }
+
+        public long bytes() {
+            return 8 * entries();
+        }
+
+        protected double load(long index) {
+            return this.chunks[(int)(index >>> CHUNK_BITS)][(int)(index & CHUNK_MASK)];
+        }
+
+        protected void store(long index, double value) {
+            this.chunks[(int)(index >>> CHUNK_BITS)][(int)(index & CHUNK_MASK)] = value;
+        }
+    }
+
+    // Floats in on-heap arrays
+    private static class FloatMatrix extends DistanceMatrix {
+        private float[][] chunks;
+
+        FloatMatrix(int size) {
+            super(size);
+            int[] lengths = chunkLengths(entries(size));
+            this.chunks = new float[lengths.length][];
+            for( int c=0; c<lengths.length; c++ ) {
+                this.chunks[c] = new float[lengths[c]];
+            }
+        }
+
+        public long bytes() {
+            return 4 * entries();
+        }
+
+        protected double load(long index) {
+            return this.chunks[(int)(index >>> CHUNK_BITS)][(int)(index & CHUNK_MASK)];
+        }
+
+        protected void store(long index, double value) {
+            this.chunks[(int)(index >>> CHUNK_BITS)][(int)(index & CHUNK_MASK)] = (float)value;
+        }
+    }
+
+    // Doubles or floats in off-heap direct or mapped buffers
+    private static class BufferMatrix extends DistanceMatrix {
+        private ByteBuffer[] chunks;
+        private boolean singlePrecision;
+
+        BufferMatrix(int size, boolean singlePrecision) {
+            super(size);
+            this.singlePrecision = singlePrecision;
+            int width = singlePrecision ? 4 : 8;
+            int[] lengths = chunkLengths(entries(size));
+            this.chunks = new ByteBuffer[lengths.length];
+            for( int c=0; c<lengths.length; c++ ) {
+                this.chunks[c] = ByteBuffer.allocateDirect(lengths[c] * width).order(ByteOrder.nativeOrder());
+            }
+        }
+
+        BufferMatrix(int size, boolean singlePrecision, ByteBuffer[] chunks) {
+            super(size);
+            this.singlePrecision = singlePrecision;
+            this.chunks = chunks;
+        }
+
+        public long bytes() {
+            return (this.singlePrecision ? 4 : 8) * entries();
+        }
+
+        protected double load(long index) {
+            ByteBuffer chunk = this.chunks[(int)(index >>> CHUNK_BITS)];
+            int offset = (int)(index & CHUNK_MASK);
+            if( this.singlePrecision ) {
+                return chunk.getFloat(offset << 2);
+            } else {
+                return chunk.getDouble(offset << 3);
+            }
+        }
+
+        protected void store(long index, double value) {
+            ByteBuffer chunk = this.chunks[(int)(index >>> CHUNK_BITS)];
+            int offset = (int)(index & CHUNK_MASK);
+            if( this.singlePrecision ) {
+                chunk.putFloat(offset << 2, (float)value);
+            } else {
+                chunk.putDouble(offset << 3, value);
+            }
+        }
+    }
+
+    // Doubles or floats in a mapped scratch file, TILE x TILE tiles at a
+    // time; tiles (I,J), I <= J, are numbered row by row as in DistanceFill,
+    // and each is stored row by row (the half of a diagonal tile below the
+    // diagonal is unused)
+    private static class TiledMatrix extends BufferMatrix {
+        private static final int TILE = DistanceFill.TILE;
+        private int tilesPerSide;
+        private int width;
+
+        TiledMatrix(int size, boolean singlePrecision, ByteBuffer[] chunks) {
+            super(size, singlePrecision, chunks);
+            this.tilesPerSide = (size + TILE - 1) / TILE;
+            this.width = singlePrecision ? 4 : 8;
+        }
+
+        public long bytes() {
+            return this.width * stored(size());
+        }
+
+        protected long index(int i, int j) {
+            if( i > j ) {
+                int swap = i;
+                i = j;
+                j = swap;
+            }
+            long tileRow = i / TILE;
+            long tile = tileRow * this.tilesPerSide - tileRow * (tileRow - 1) / 2 + (j / TILE - tileRow);
+            return tile * (TILE * TILE) + (i % TILE) * TILE + (j % TILE);
+        }
+
+        // stored
+        // Pre-conditions:
+        //        - size is non-negative
+        // Post-conditions:
+        //        - Returns the number of entries in the tiles of a size x size matrix
+        static long stored(int size) {
+            long tiles = (size + TILE - 1) / TILE;
+            return tiles * (tiles + 1) / 2 * (TILE * TILE);
+        }
+    }
+}
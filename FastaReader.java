@@ -0,0 +1,174 @@
+/*
+ * FastaReader.java
+ *
+ * Reads the species of a FASTA alignment file in a single streaming pass.
+ *
+ * The file is memory-mapped one window at a time and scanned byte by byte.
+ * Header lines start with '>'; the species name is the last bar-separated
+ * field of the header's first word.  Every other non-whitespace byte is a
+ * site of the current species' sequence, and is appended to one reusable
+ * buffer until the next header, when the sequence is packed into its
+ * Species straight from the buffer's bytes.  The number of headers and the
+ * sequence length are collected in the same pass, so the file never has to
+ * be read twice.
+ *
+ */
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+public class FastaReader {
+    private static final long MAP_WINDOW = 1L << 30;     // Bytes mapped at a time
+    private static final int READ_BLOCK = 1 << 16;       // Bytes copied out of the mapping at a time
+
+    private int headerCount;              // Number of '>' header lines read
+    private int sequenceLength;           // Length of the longest sequence read
+    private long bytesRead;               // Size of the file read
+
+    private byte[] header = new byte[256];        // The current header line
+    private int headerLength;
+    private byte[] sequence = new byte[1 << 16];  // The current species' sites
+    private int length;
+
+    // ACCESSORS
+
+    // getHeaderCount
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the number of headers in the last file read
+    public int getHeaderCount() {
+        return this.headerCount;
+    }
+
+    // getSequenceLength
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the length of the longest sequence in the last file read
+    //          (all of them, for an aligned file)
+    public int getSequenceLength() {
+        return this.sequenceLength;
+    }
+
+    // getBytesRead
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the size in bytes of the last file read
+    public long getBytesRead() {
+        return this.bytesRead;
+    }
+
+    // read
+    // Pre-conditions:
+    //        - filename contains the path of a FASTA file
+    // Post-conditions:
+    //        - Returns one Species per header in the file, in file order
+    //        - Throws IOException if the file cannot be opened or read
+    public Species[] read(String filename) throws IOException {
+        ArrayList<Species> species = new ArrayList<Species>();
+        this.headerCount = 0;
+        this.sequenceLength = 0;
+        this.bytesRead = 0;
+        this.length = 0;
+        this.headerLength = 0;
+
+        boolean inHeader = false;        // Inside a header line
+        boolean started = false;         // A header has been seen
+        boolean lineStart = true;
+        byte[] block = new byte[READ_BLOCK];
+
+        FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            for( long position = 0; position < size; position += MAP_WINDOW ) {
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_WINDOW, size - position));
+                while( window.hasRemaining() ) {
+                    int count = Math.min(block.length, window.remaining());
+                    window.get(block, 0, count);
+                    for( int i=0; i<count; i++ ) {
+                        byte b = block[i];
+                        if( inHeader ) {
+                            if( b == '\n' ) {
+                                inHeader = false;
+                                lineStart = true;
+                            } else {
+                                appendHeader(b);
+                            }
+                        } else if( lineStart && b == '>' ) {
+                            if( started ) {
+                                species.add(finishSpecies());
+                            }
+                            started = true;
+                            inHeader = true;
+                            this.headerCount++;
+                            appendHeader(b);
+                        } else {
+                            lineStart = (b == '\n');
+                            if( started && b != ' ' && b != '\t' && b != '\r' && b != '\n' ) {
+                                appendSite(b);
+                            }
+                        }
+                    }
+                }
+            }
+            this.bytesRead = size;
+        } finally {
+            channel.close();
+        }
+        if( started ) {
+            species.add(finishSpecies());
+        }
+        return species.toArray(new Species[species.size()]);
+    }
+
+    // appendHeader
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - b has been added to the end of the current header
+    private void appendHeader(byte b) {
+        if( this.headerLength == this.header.length ) {
+            this.header = Arrays.copyOf(this.header, 2 * this.header.length);
+        }
+        this.header[this.headerLength++] = b;
+        return;
+    }
+
+    // appendSite
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - b has been added to the end of the current sequence
+    private void appendSite(byte b) {
+        if( this.length == this.sequence.length ) {
+            this.sequence = Arrays.copyOf(this.sequence, 2 * this.sequence.length);
+        }
+        this.sequence[this.length++] = b;
+        return;
+    }
+
+    // finishSpecies
+    // Pre-conditions:
+    //        - The current header and sequence are complete
+    // Post-conditions:
+    //        - Returns the Species they describe, and empties both buffers
+    private Species finishSpecies() {
+        String line = new String(this.header, 0, this.headerLength, StandardCharsets.UTF_8).trim();
+        String[] words = line.split("\\s+");
+        String[] nameArray = words[0].split("\\|");
+        String name = nameArray[nameArray.length-1];
+        Species species = new Species(name, this.sequence, this.length);
+        this.sequenceLength = Math.max(this.sequenceLength, this.length);
+        this.headerLength = 0;
+        this.length = 0;
+        return species;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * FixedPoint.java
+ *
+ * Writes doubles with a fixed number of decimals, giving the same text as
+ * String.format("%.<decimals>f", value) in the default locale, without
+ * building a Formatter and a String for every value.
+ *
+ * The value is scaled and rounded in double arithmetic.  That is exact
+ * unless the scaled value is within rounding error of a half (where
+ * String.format rounds the value's shortest decimal form half up), or is
+ * too large, negative or not finite; those values are handed to
+ * String.format itself, so the output is always the same.
+ *
+ */
+
+import java.io.IOException;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+
+public class FixedPoint {
+    private static final double LIMIT = 1e9;     // Largest scaled value rounded in double arithmetic
+    private static final double TIE = 1e-6;      // Scaled values this close to a half are handed to String.format
+
+    private int decimals;                 // Digits after the separator
+    private long scale;                   // 10^decimals
+    private String pattern;               // The equivalent String.format pattern
+    private Locale locale;                // The locale String.format would use
+    private char zero;                    // The locale's zero digit
+    private char separator;               // The locale's decimal separator
+    private char[] digits = new char[20]; // Scratch space for one value
+
+    // CONSTRUCTOR
+
+    // FixedPoint
+    // Pre-conditions:
+    //        - 0 <= decimals <= 9
+    // Post-conditions:
+    //        - A writer of values with the given number of decimals, in the
+    //          current default locale, has been created
+    public FixedPoint(int decimals) {
+        this.decimals = decimals;
+        this.scale = 1;
+        for( int i=0; i<decimals; i++ ) {
+            this.scale *= 10;
+        }
+        this.pattern = "%." + decimals + "f";
+        this.locale = Locale.getDefault(Locale.Category.FORMAT);
+        DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(this.locale);
+        this.zero = symbols.getZeroDigit();
+        this.separator = symbols.getDecimalSeparator();
+    }
+
+    // append
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - String.format(pattern, value) has been appended to out
+    public void append(Appendable out, double value) throws IOException {
+        double scaled = value * this.scale;
+        double floor = Math.floor(scaled);
+        double fraction = scaled - floor;
+        if( !(scaled >= 0.0 && scaled < LIMIT) || Math.abs(fraction - 0.5) < TIE
+                || (value == 0.0 && 1.0 / value < 0) ) {
+            out.append(String.format(this.locale, this.pattern, value));
+            return;
+        }
+        long rounded = (long)floor + (fraction > 0.5 ? 1 : 0);
+        long whole = rounded / this.scale;
+        long part = rounded % this.scale;
+
+        int end = this.digits.length;
+        int start = end;
+        for( int i=0; i<this.decimals; i++ ) {
+            this.digits[--start] = (char)(this.zero + part % 10);
+            part /= 10;
+        }
+        if( this.decimals > 0 ) {
+            this.digits[--start] = this.separator;
+        }
+        do {
+            this.digits[--start] = (char)(this.zero + whole % 10);
+            whole /= 10;
+        } while( whole > 0 );
+        for( int i=start; i<end; i++ ) {
+            out.append(this.digits[i]);
+        }
+        return;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * GreedyEngine.java
+ *
+ * A ClusteringEngine that follows the assignment's algorithm literally:
+ * before every join it scans all remaining pairs for the closest one.
+ * This takes O(n^3) time, so it is only meant as a reference to check the
+ * faster engines against on small inputs.
+ *
+ */
+
+public class GreedyEngine extends AgglomerativeEngine {
+
+    // CONSTRUCTORS
+
+    // GreedyEngine
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - An engine that builds UPGMA trees has been created
+    public GreedyEngine() {
+        this(Linkage.UPGMA);
+    }
+
+    // GreedyEngine
+    // Pre-conditions:
+    //        - linkage is non-null
+    // Post-conditions:
+    //        - An engine that updates distances with linkage has been created
+    public GreedyEngine(Linkage linkage) {
+        super(linkage);
+    }
+
+    // cluster
+    // Pre-conditions:
+    //        - See ClusteringEngine
+    // Post-conditions:
+    //        - Returns the root of the tree built from all leaves
+    public PhyloTreeNode cluster(PhyloTreeNode[] leaves, DistanceMatrix distances, BuildMetrics metrics) {
+        int n = leaves.length;
+        if( n == 0 ) {
+            return null;
+        }
+        PhyloTreeNode[] forest = leaves.clone();   // forest[i] is the tree in row i (null once joined)
+        int sites = sites(leaves);
+        int[] pair = new int[2];
+        for( int remaining = n; remaining > 1; remaining-- ) {
+            closestPair(forest, distances, pair);
+            join(pair[0], pair[1], forest, distances, sites, metrics);
+        }
+        return forest[0];
+    }
+
+    // closestPair
+    // Pre-conditions:
+    //        - At least two trees remain in forest
+    // Post-conditions:
+    //        - pair holds the rows a < b of the closest two trees, using the
+    //          strict (distance, joined label) order
+    static void closestPair(PhyloTreeNode[] forest, DistanceMatrix distances, int[] pair) {
+        int n = forest.length;
+        int bestA = -1;
+        int bestB = -1;
+        for( int a=0; a<n; a++ ) {
+            if( forest[a] == null ) {
+                continue;
+            }
+            for( int b=a+1; b<n; b++ ) {
+                if( forest[b] == null ) {
+                    continue;
+                }
+                if( bestA == -1 || closerPair(distances.get(a, b), forest[a], forest[b],
+                                              distances.get(bestA, bestB), forest[bestA], forest[bestB]) ) {
+                    bestA = a;
+                    bestB = b;
+                }
+            }
+        }
+        pair[0] = bestA;
+        pair[1] = bestB;
+        return;
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ * LcaIndex.java
+ *
+ * Answers least common ancestor queries on a PhyloTree in O(1) time, after
+ * O(n log n) preprocessing.
+ *
+ * The tree is walked once, writing down every node each time the walk
+ * passes through it (its Euler tour).  The least common ancestor of two
+ * nodes is the shallowest node written down between their first
+ * appearances, and a sparse table of range minima over the tour finds it
+ * with two lookups.  The walk uses an explicit stack, so trees of any
+ * depth can be indexed.
+ *
+ * The walk also records each node's weighted depth (see
+ * PhyloTree.weightedNodeDepth), so the evolutionary distance between two
+ * nodes is weightedDepth(a) + weightedDepth(b) - 2 * weightedDepth(lca),
+ * again in O(1) time.
+ *
+ * Node ids are given in pre-order, so an ancestor always has a smaller id
+ * than its descendants.  The shallowest node in any stretch of the tour is
+ * an ancestor of every other node in it, so it is also the one with the
+ * smallest id, and the range minima compare ids alone, without looking up
+ * depths.  The batch methods (see BatchQuery) use the ids directly, in a
+ * loop over arrays with no lookups by node.
+ *
+ * A CompactTree is indexed straight from its arrays: the index keeps each
+ * node's CompactTree id instead of the node, and maps ids both ways with
+ * two int arrays, so no views are created until a query returns one.
+ *
+ */
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+public class LcaIndex {
+    private PhyloTreeNode[] nodes;        // Nodes by id, in the order the walk first reaches them (null for a CompactTree)
+    private IdentityHashMap<PhyloTreeNode, Integer> ids;   // Each node's id (null for a CompactTree)
+    private CompactTree tree;             // The CompactTree indexed (null for linked nodes)
+    private int[] treeIds;                // treeIds[id] is the node's id in tree
+    private int[] indexIds;               // indexIds[tree id] is the node's id here (-1 if not indexed)
+    private int[] depth;                  // depth[id] is the node's depth in the tree
+    private double[] weightedDepth;       // weightedDepth[id] is the sum of the edge weights from the root
+    private int[] first;                  // first[id] is the node's first position in the tour
+    private int[][] table;                // table[k][i] is the id of the shallowest node in tour[i, i + 2^k)
+
+    // CONSTRUCTOR
+
+    // LcaIndex
+    // Pre-conditions:
+    //        - root is the root of a tree (or null)
+    // Post-conditions:
+    //        - An index of the tree rooted at root has been built
+    //        - If root is a CompactTree view, the tree is walked through the
+    //          CompactTree's arrays, and nodes are kept by their CompactTree
+    //          ids rather than as views
+    public LcaIndex(PhyloTreeNode root) {
+        int count = (root == null) ? 0 : 2 * root.getNumLeafs() - 1;
+        this.depth = new int[count];
+        this.weightedDepth = new double[count];
+        this.first = new int[count];
+        this.tree = CompactTree.treeOf(root);
+        if( this.tree != null ) {
+            this.treeIds = new int[count];
+            this.indexIds = new int[this.tree.size()];
+            Arrays.fill(this.indexIds, -1);
+            this.treeIds[0] = CompactTree.idOf(root);
+        } else {
+            this.nodes = new PhyloTreeNode[count];
+            this.ids = new IdentityHashMap<PhyloTreeNode, Integer>(2 * count);
+        }
+        int[] tour = new int[Math.max(0, 2 * count - 1)];
+        if( root == null ) {
+            this.table = new int[0][];
+            return;
+        }
+
+        // walk the tree; each stack entry is a node and how many of its
+        // children have been visited so far
+        int[] stack = new int[count];
+        int[] visited = new int[count];
+        int top = 0;
+        int nextId = 0;
+        int length = 0;
+        stack[0] = nextId;
+        if( this.nodes != null ) {
+            this.nodes[0] = root;
+        }
+        addNode(nextId++, 0, 0.0, length);
+        tour[length++] = 0;
+        while( top >= 0 ) {
+            int id = stack[top];
+            if( isLeaf(id) || visited[top] == 2 ) {
+                top--;
+                if( top >= 0 ) {
+                    tour[length++] = stack[top];
+                }
+            } else {
+                setChild(id, visited[top] == 0, nextId);
+                visited[top]++;
+                top++;
+                stack[top] = nextId;
+                visited[top] = 0;
+                addNode(nextId++, top, this.weightedDepth[id] + distanceToChild(id), length);
+                tour[length++] = stack[top];
+            }
+        }
+
+        // build the sparse table of range minima over the tour
+        int levels = 32 - Integer.numberOfLeadingZeros(length);
+        this.table = new int[levels][];
+        this.table[0] = tour;
+        for( int k=1; k<levels; k++ ) {
+            int half = 1 << (k - 1);
+            int[] previous = this.table[k-1];
+            int[] level = new int[length - (1 << k) + 1];
+            for( int i=0; i<level.length; i++ ) {
+                level[i] = shallower(previous[i], previous[i + half]);
+            }
+            this.table[k] = level;
+        }
+        return;
+    }
+
+    // LcaIndex
+    // Pre-conditions:
+    //        - The arrays are those of an index built by the constructor
+    //          above over tree, whose node ids are the index's (see TreeFile)
+    // Post-conditions:
+    //        - An index over the given arrays (not copies) has been created
+    LcaIndex(CompactTree tree, int[] depth, double[] weightedDepth, int[] first, int[][] table) {
+        this.tree = tree;
+        this.depth = depth;
+        this.weightedDepth = weightedDepth;
+        this.first = first;
+        this.table = table;
+        // the numbering is the same both ways
+        this.treeIds = new int[depth.length];
+        for( int id=0; id<depth.length; id++ ) {
+            this.treeIds[id] = id;
+        }
+        this.indexIds = this.treeIds;
+        return;
+    }
+
+    // ACCESSORS
+
+    // getDepths, getWeightedDepths, getFirst, getTable
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Return the index's arrays (not copies), for TreeFile to save
+    int[] getDepths() {
+        return this.depth;
+    }
+
+    double[] getWeightedDepths() {
+        return this.weightedDepth;
+    }
+
+    int[] getFirst() {
+        return this.first;
+    }
+
+    int[][] getTable() {
+        return this.table;
+    }
+
+    // lca
+    // Pre-conditions:
+    //        - node1 and node2 are nodes of the indexed tree (or null)
+    // Post-conditions:
+    //        - If either node is null or not in the tree, returns null
+    //        - Else: returns their common ancestor with the largest depth
+    public PhyloTreeNode lca(PhyloTreeNode node1, PhyloTreeNode node2) {
+        if( node1 == null || node2 == null ) {
+            return null;
+        }
+        int id1 = id(node1);
+        int id2 = id(node2);
+        if( id1 < 0 || id2 < 0 ) {
+            return null;
+        }
+        return node(lcaId(this.first[id1], this.first[id2]));
+    }
+
+    // distance
+    // Pre-conditions:
+    //        - node1 and node2 are nodes of the indexed tree (or null)
+    // Post-conditions:
+    //        - If either node is null or not in the tree, returns POSITIVE_INFINITY
+    //        - Else: returns the sum of the weights along the paths from their
+    //          least common ancestor to each of the two nodes
+    public double distance(PhyloTreeNode node1, PhyloTreeNode node2) {
+        if( node1 == null || node2 == null ) {
+            return Double.POSITIVE_INFINITY;
+        }
+        int id1 = id(node1);
+        int id2 = id(node2);
+        if( id1 < 0 || id2 < 0 ) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return this.weightedDepth[id1] + this.weightedDepth[id2] - 2 * this.weightedDepth[lcaId(this.first[id1], this.first[id2])];
+    }
+
+    // id
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns node's id, or -1 if node is null or not in the tree
+    int id(PhyloTreeNode node) {
+        if( node == null ) {
+            return -1;
+        }
+        if( this.tree != null ) {
+            int treeId = (CompactTree.treeOf(node) == this.tree) ? CompactTree.idOf(node) : -1;
+            return (treeId >= 0 && treeId < this.indexIds.length) ? this.indexIds[treeId] : -1;
+        }
+        Integer id = this.ids.get(node);
+        return (id == null) ? -1 : id.intValue();
+    }
+
+    // node
+    // Pre-conditions:
+    //        - -1 <= id < the number of nodes
+    // Post-conditions:
+    //        - Returns the node given id (null for -1); for a CompactTree,
+    //          its view
+    PhyloTreeNode node(int id) {
+        if( id < 0 ) {
+            return null;
+        }
+        return (this.tree != null) ? this.tree.node(this.treeIds[id]) : this.nodes[id];
+    }
+
+    // distances
+    // Pre-conditions:
+    //        - ids1 and ids2 hold node ids (or -1) at [from, to)
+    // Post-conditions:
+    //        - distances[i] is the distance between nodes ids1[i] and ids2[i]
+    //          (POSITIVE_INFINITY if either is -1), for every i in [from, to)
+    void distances(int[] ids1, int[] ids2, double[] distances, int from, int to) {
+        int[] first = this.first;
+        double[] weightedDepth = this.weightedDepth;
+        for( int i=from; i<to; i++ ) {
+            int id1 = ids1[i];
+            int id2 = ids2[i];
+            if( id1 < 0 || id2 < 0 ) {
+                distances[i] = Double.POSITIVE_INFINITY;
+                continue;
+            }
+            int ancestor = lcaId(first[id1], first[id2]);
+            distances[i] = weightedDepth[id1] + weightedDepth[id2] - 2 * weightedDepth[ancestor];
+        }
+        return;
+    }
+
+    // ancestors
+    // Pre-conditions:
+    //        - ids1 and ids2 hold node ids (or -1) at [from, to)
+    // Post-conditions:
+    //        - ancestors[i] is the id of the least common ancestor of nodes
+    //          ids1[i] and ids2[i] (-1 if either is -1), for every i in
+    //          [from, to)
+    void ancestors(int[] ids1, int[] ids2, int[] ancestors, int from, int to) {
+        int[] first = this.first;
+        for( int i=from; i<to; i++ ) {
+            int id1 = ids1[i];
+            int id2 = ids2[i];
+            ancestors[i] = (id1 < 0 || id2 < 0) ? -1 : lcaId(first[id1], first[id2]);
+        }
+        return;
+    }
+
+    // lcaId
+    // Pre-conditions:
+    //        - position1 and position2 are the first tour positions of two
+    //          nodes
+    // Post-conditions:
+    //        - Returns the id of their least common ancestor
+    private int lcaId(int position1, int position2) {
+        int from = Math.min(position1, position2);
+        int to = Math.max(position1, position2);
+        int k = 31 - Integer.numberOfLeadingZeros(to - from + 1);
+        return shallower(this.table[k][from], this.table[k][to - (1 << k) + 1]);
+    }
+
+    // addNode
+    // Pre-conditions:
+    //        - id is the next unused id, and its node has been set (see
+    //          setChild)
+    // Post-conditions:
+    //        - The node has been recorded with the given id, depth, weighted
+    //          depth and first tour position
+    private void addNode(int id, int nodeDepth, double nodeWeightedDepth, int position) {
+        this.depth[id] = nodeDepth;
+        this.weightedDepth[id] = nodeWeightedDepth;
+        this.first[id] = position;
+        if( this.tree != null ) {
+            this.indexIds[this.treeIds[id]] = id;
+        } else {
+            this.ids.put(this.nodes[id], id);
+        }
+        return;
+    }
+
+    // setChild
+    // Pre-conditions:
+    //        - id is the id of a non-terminal, and childId the next unused id
+    // Post-conditions:
+    //        - The node given childId is id's left child if left, else its
+    //          right child
+    private void setChild(int id, boolean left, int childId) {
+        if( this.tree != null ) {
+            int treeId = this.treeIds[id];
+            this.treeIds[childId] = left ? this.tree.leftId(treeId) : this.tree.rightId(treeId);
+        } else {
+            this.nodes[childId] = left ? this.nodes[id].getLeftChild() : this.nodes[id].getRightChild();
+        }
+        return;
+    }
+
+    // isLeaf, distanceToChild
+    // Pre-conditions:
+    //        - id has been given to a node
+    // Post-conditions:
+    //        - Return whether the node is a leaf, and its edge weight to its
+    //          children
+    private boolean isLeaf(int id) {
+        return (this.tree != null) ? this.tree.leftId(this.treeIds[id]) < 0 : this.nodes[id].isLeaf();
+    }
+
+    private double distanceToChild(int id) {
+        return (this.tree != null) ? this.tree.distanceToChild(this.treeIds[id]) : this.nodes[id].getDistanceToChild();
+    }
+
+    // shallower
+    // Pre-conditions:
+    //        - id1 and id2 are the ids of two nodes of one stretch of the tour
+    // Post-conditions:
+    //        - Returns whichever of the two nodes has the smaller depth,
+    //          which is the one with the smaller id (see above)
+    private static int shallower(int id1, int id2) {
+        return Math.min(id1, id2);
+    }
+}
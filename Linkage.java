@@ -0,0 +1,61 @@
+/*
+ * Linkage.java
+ *
+ * The rule an AgglomerativeEngine uses to compute the distances to a tree
+ * it has just joined: the distance from a third tree to the joined tree,
+ * from the third tree's distances to the two trees that were joined and
+ * the number of species in each of them.
+ *
+ *   UPGMA     the size-weighted average (the assignment's rule)
+ *   WPGMA     the plain average, whatever the sizes
+ *   SINGLE    the smaller of the two distances
+ *   COMPLETE  the larger of the two distances
+ *
+ * Every rule keeps the new distance between the two distances it
+ * combines, so a joined tree is never closer to a third tree than both of
+ * its parts were.  The nearest-neighbor chain and row minimum engines
+ * depend on that.  The averages are clamped so that floating point
+ * rounding cannot break it either.
+ *
+ */
+
+public enum Linkage {
+    UPGMA {
+        public double update(double distA, double distB, double sizeA, double sizeB) {
+            return clamp((sizeA / (sizeB + sizeA)) * distA + (sizeB / (sizeB + sizeA)) * distB, distA, distB);
+        }
+    },
+    WPGMA {
+        public double update(double distA, double distB, double sizeA, double sizeB) {
+            return clamp((distA + distB) / 2, distA, distB);
+        }
+    },
+    SINGLE {
+        public double update(double distA, double distB, double sizeA, double sizeB) {
+            return Math.min(distA, distB);
+        }
+    },
+    COMPLETE {
+        public double update(double distA, double distB, double sizeA, double sizeB) {
+            return Math.max(distA, distB);
+        }
+    };
+
+    // update
+    // Pre-conditions:
+    //        - distA and distB are the distances from a third tree to trees
+    //          of sizeA and sizeB species, which are being joined
+    // Post-conditions:
+    //        - Returns the distance from the third tree to the joined tree,
+    //          within [min(distA,distB), max(distA,distB)]
+    public abstract double update(double distA, double distB, double sizeA, double sizeB);
+
+    // clamp
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns value, kept within [min(distA,distB), max(distA,distB)]
+    private static double clamp(double value, double distA, double distB) {
+        return Math.max(Math.min(distA, distB), Math.min(Math.max(distA, distB), value));
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * LinkedTreeNode.java
+ *
+ * A PhyloTreeNode stored as an object of its own, with references to its
+ * parent and children and its label, species and cached subtree sizes in
+ * its fields.  This is how PhyloTree builds its trees unless asked for a
+ * CompactTree.
+ *
+ */
+
+public class LinkedTreeNode extends PhyloTreeNode {
+    private PhyloTreeNode parent;        // Reference variable for parent node (null for root)
+    private PhyloTreeNode leftChild;     // Reference variable for left child (null if empty)
+    private PhyloTreeNode rightChild;    // Reference variable for right child (null if empty)
+    private String label;                // A unique string label for the species or non-terminal
+    private Species species;             // Reference variable for a species object (null for non-terminals)
+    private double distanceToChild;      // Edge weight to left child (which is also the edge weight to the right child) (Use 0 for terminals)
+    private int numLeafs;                // Caches the # leaves in the tree -- can't change after Constructor
+    private int height;                  // Caches the height of the tree -- can't change after Constructor
+    private double weightedHeight;       // Caches the weighted height of the tree -- can't change after Constructor
+
+    // CONSTRUCTORS
+
+    // LinkedTreeNode - constructor for a leaf
+    // Pre-conditions:
+    //      - parent node points to a PhyloTree (or null)
+    //      - species points to a Species object
+    // Post-conditions:
+    //      - A new leaf PhyloTree node is created
+    public LinkedTreeNode(PhyloTreeNode parent, Species species) {
+        this.parent = parent;
+        this.species = species;
+        this.label = species.getName();
+        this.numLeafs = 1;
+        this.height = 0;
+        this.weightedHeight = 0.0;
+        return;
+    }
+
+    // LinkedTreeNode - constructor for a non-terminal
+    // Pre-conditions:
+    //        - label is leftlabel+rightlabel, where leftlabel is the label
+    //        of the left child and rightlabel is the label of the right child
+    //        - parent is a PhyloTreeNode (or null) to be the node's parent
+    //        - leftlabel and rightChild are PhyloTreeNodes for the left and right children
+    //        - distanceToChild is the edge weight from this new node to each of its children
+    //          and will be set to X/2, where X is the distance between the two children at the
+    //          point that they are merged during buildTree
+    // Post-conditions:
+    //      - A new non-terminal PhyloTree node is created
+    //        - species will be set to null, since non-terminals are not associated with species
+    //        - this.numLeafs, this.height and this.weightedHeight will be
+    //          computed given the children
+    public LinkedTreeNode(String label, PhyloTreeNode parent, PhyloTreeNode leftChild, PhyloTreeNode rightChild,double distanceToChild) {
+        this.label = label;
+        this.parent = parent;
+        this.leftChild = leftChild;
+        this.rightChild = rightChild;
+        this.distanceToChild = distanceToChild;
+        this.numLeafs = 0;
+        if( leftChild != null ) {
+            this.numLeafs += leftChild.getNumLeafs();
+        }
+        if( rightChild != null ) {
+            this.numLeafs += rightChild.getNumLeafs();
+        }
+        int leftH = (leftChild != null) ? leftChild.getHeight() : -1;
+        int rightH = (rightChild != null) ? rightChild.getHeight() : -1;
+        this.height = 1 + Math.max(leftH, rightH);
+        double leftW = distanceToChild + ((leftChild != null) ? leftChild.getWeightedHeight() : Double.NEGATIVE_INFINITY);
+        double rightW = distanceToChild + ((rightChild != null) ? rightChild.getWeightedHeight() : Double.NEGATIVE_INFINITY);
+        this.weightedHeight = (rightW >= leftW) ? rightW : leftW;
+    }
+
+    // ACCESSORS (see PhyloTreeNode)
+
+    public PhyloTreeNode getParent() {
+        return this.parent;
+    }
+
+    public PhyloTreeNode getLeftChild() {
+        return this.leftChild;
+    }
+
+    public PhyloTreeNode getRightChild() {
+        return this.rightChild;
+    }
+
+    public String getLabel() {
+        return this.label;
+    }
+
+    public Species getSpecies() {
+        return this.species;
+    }
+
+    public double getDistanceToChild() {
+        return this.distanceToChild;
+    }
+
+    public int getNumLeafs() {
+        return this.numLeafs;
+    }
+
+    public int getHeight() {
+        return this.height;
+    }
+
+    public double getWeightedHeight() {
+        return this.weightedHeight;
+    }
+
+    public boolean isLeaf() {
+        return this.leftChild == null && this.rightChild == null;
+    }
+
+    // MODIFIER
+
+    // setParent
+    // Pre-conditions:
+    //        - parent is a PhyloTreeNode or null
+    // Post-conditions:
+    //        - Sets this.parent to parent
+    public void setParent(PhyloTreeNode parent) {
+        this.parent = parent;
+        return;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * LiveTree.java
+ *
+ * Holds the TreeSnapshot that queries are currently served from, and
+ * swaps in a new one atomically, e.g. once a rebuild finishes.
+ *
+ * Readers call get() and query the snapshot they got, with no locking;
+ * a reader keeps its snapshot for as long as it likes, while later readers
+ * already see the new one.  rebuild builds a new tree in the background and
+ * swaps it in when it is done, so the old tree keeps being served
+ * meanwhile.  If several rebuilds overlap, the one started last wins: a
+ * rebuild that finishes after a later one (or after a later swap) is not
+ * swapped in.
+ *
+ */
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+public class LiveTree {
+    private volatile TreeSnapshot current;   // The snapshot being served
+    private long installed;                  // Generation of current (guarded by this)
+    private long generations;                // Generations handed out so far (guarded by this)
+
+    // CONSTRUCTOR
+
+    // LiveTree
+    // Pre-conditions:
+    //        - initial is non-null
+    // Post-conditions:
+    //        - initial is being served
+    public LiveTree(TreeSnapshot initial) {
+        this.current = initial;
+    }
+
+    // ACCESSORS
+
+    // get
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the snapshot being served
+    public TreeSnapshot get() {
+        return this.current;
+    }
+
+    // MODIFIERS
+
+    // swap
+    // Pre-conditions:
+    //        - next is non-null
+    // Post-conditions:
+    //        - next is being served, and the snapshot it replaced is returned
+    //        - Rebuilds started before are no longer swapped in
+    public synchronized TreeSnapshot swap(TreeSnapshot next) {
+        TreeSnapshot previous = this.current;
+        this.installed = ++this.generations;
+        this.current = next;
+        return previous;
+    }
+
+    // rebuild
+    // Pre-conditions:
+    //        - species, options and executor are non-null
+    // Post-conditions:
+    //        - A tree is being built from species with options on executor;
+    //          the returned future completes with its snapshot once it has
+    //          been swapped in (or skipped, see above), or exceptionally if
+    //          the build failed
+    public CompletableFuture<TreeSnapshot> rebuild(final Species[] species, final BuildOptions options, Executor executor) {
+        final long generation;
+        synchronized( this ) {
+            generation = ++this.generations;
+        }
+        return CompletableFuture.supplyAsync(() -> new PhyloTree(species, 1, options).snapshot(), executor)
+            .thenApply(snapshot -> install(snapshot, generation));
+    }
+
+    // install
+    // Pre-conditions:
+    //        - snapshot was built by the rebuild given generation
+    // Post-conditions:
+    //        - snapshot is being served, unless a later rebuild or swap got
+    //          there first
+    //        - Returns snapshot
+    private synchronized TreeSnapshot install(TreeSnapshot snapshot, long generation) {
+        if( generation > this.installed ) {
+            this.installed = generation;
+            this.current = snapshot;
+        }
+        return snapshot;
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * NearestNeighborChainEngine.java
+ *
+ * A ClusteringEngine that builds the tree with the nearest-neighbor chain
+ * algorithm, in O(n^2) time and without any extra space beyond the
+ * distance matrix.
+ *
+ * Starting from any tree, the chain repeatedly follows each tree's nearest
+ * neighbor until it reaches two trees that are each other's nearest
+ * neighbor.  Those two are joined, and the chain continues from where it
+ * was.  Because no Linkage but SINGLE ever brings a joined tree closer to
+ * a third tree than both of its parts were, joining reciprocal nearest
+ * neighbors in chain order gives exactly the same tree as always joining
+ * the globally closest pair.
+ *
+ * "Closest" is the strict (distance, joined label) order of
+ * AgglomerativeEngine, and a join changes labels, so the order is kept
+ * with ranks instead.  A tree's rank is the position of its alphabetically
+ * first species name among all the names.  If the names are distinct and
+ * use no character that sorts at or before "+", a tree's label sorts
+ * exactly as its first name does, so two pairs at the same distance
+ * compare by the lower rank in each and then by the higher, and a tree's
+ * nearest neighbor is the closest tree, the lowest ranked one on a tie.
+ * A joined tree takes the lower rank of its parts.  A tree at the same
+ * distance from a joined tree as the pair it is tied with was then
+ * already at that distance from both parts (AgglomerativeEngine's exact
+ * UPGMA averages make equal averages tie exactly), so the joined tree's
+ * rank cannot take it ahead either.  Finding a nearest neighbor is one
+ * scan of a row, so ties cost nothing extra.
+ *
+ * SINGLE linkage breaks this: a joined tree is as close to a third tree
+ * as the closer of its parts, and may take the lower rank of the other
+ * part, which was farther.  But it also never changes any other tree's
+ * smallest distance, so for SINGLE the engine keeps each row's smallest
+ * distance instead of a chain.  The closest pair is then the lowest
+ * ranked tree among those with the smallest of these minima, joined with
+ * the lowest ranked tree at that distance from it; finding it and
+ * rescanning the joined row are O(n) per join, as in SLINK.
+ *
+ * So the tree is exactly GreedyEngine's for UPGMA, SINGLE and COMPLETE
+ * linkage (see EngineEquivalenceTest).  WPGMA halves its distances in
+ * merge order and UPGMA averages that are not exact are rounded, so those
+ * can round ties differently from GreedyEngine; their trees are equally
+ * valid but may differ where averages tie.  Names that do not meet the
+ * conditions above are left to RowMinimumEngine, which compares the
+ * labels themselves.
+ *
+ */
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+public class NearestNeighborChainEngine extends AgglomerativeEngine {
+
+    // CONSTRUCTORS
+
+    // NearestNeighborChainEngine
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - An engine that builds UPGMA trees has been created
+    public NearestNeighborChainEngine() {
+        this(Linkage.UPGMA);
+    }
+
+    // NearestNeighborChainEngine
+    // Pre-conditions:
+    //        - linkage is non-null
+    // Post-conditions:
+    //        - An engine that updates distances with linkage has been created
+    public NearestNeighborChainEngine(Linkage linkage) {
+        super(linkage);
+    }
+
+    // cluster
+    // Pre-conditions:
+    //        - See ClusteringEngine
+    // Post-conditions:
+    //        - Returns the root of the tree built from all leaves
+    //        - Rows of distances belonging to joined trees are reused for
+    //          the new trees
+    public PhyloTreeNode cluster(PhyloTreeNode[] leaves, DistanceMatrix distances, BuildMetrics metrics) {
+        int n = leaves.length;
+        if( n == 0 ) {
+            return null;
+        }
+        int[] rank = ranks(leaves);
+        if( rank == null ) {
+            return new RowMinimumEngine(getLinkage()).cluster(leaves, distances, metrics);
+        }
+        PhyloTreeNode[] forest = leaves.clone();   // forest[i] is the tree in row i (null once joined)
+        int sites = sites(leaves);
+        if( getLinkage() == Linkage.SINGLE ) {
+            return clusterSingle(forest, distances, rank, sites, metrics);
+        }
+        int[] chain = new int[n];
+        int chainSize = 0;
+        int remaining = n;
+        int nextStart = 0;
+
+        while( remaining > 1 ) {
+            if( chainSize == 0 ) {
+                while( forest[nextStart] == null ) {
+                    nextStart++;
+                }
+                chain[chainSize++] = nextStart;
+            }
+            int top = chain[chainSize-1];
+            int nearest = nearestNeighbor(top, forest, distances, rank);
+            if( chainSize > 1 && nearest == chain[chainSize-2] ) {
+                chainSize -= 2;
+                rank[top] = Math.min(rank[top], rank[nearest]);
+                join(top, nearest, forest, distances, sites, metrics);
+                remaining--;
+            } else {
+                chain[chainSize++] = nearest;
+            }
+        }
+        while( forest[nextStart] == null ) {
+            nextStart++;
+        }
+        return forest[nextStart];
+    }
+
+    // clusterSingle
+    // Pre-conditions:
+    //        - forest holds the leaves, rank their ranks (see above), and
+    //          the linkage is SINGLE
+    // Post-conditions:
+    //        - Returns the root of the tree built from all of forest
+    private PhyloTreeNode clusterSingle(PhyloTreeNode[] forest, DistanceMatrix distances, int[] rank,
+                                        int sites, BuildMetrics metrics) {
+        int n = forest.length;
+        double[] minimum = new double[n];          // minimum[i] is row i's smallest distance
+        for( int i=0; i<n && n>1; i++ ) {
+            minimum[i] = distances.get(i, nearestNeighbor(i, forest, distances, rank));
+        }
+        for( int remaining = n; remaining > 1; remaining-- ) {
+            int best = -1;
+            for( int i=0; i<n; i++ ) {
+                if( forest[i] != null && (best == -1 || minimum[i] < minimum[best]
+                                          || (minimum[i] == minimum[best] && rank[i] < rank[best])) ) {
+                    best = i;
+                }
+            }
+            int nearest = nearestNeighbor(best, forest, distances, rank);
+            rank[best] = Math.min(rank[best], rank[nearest]);
+            join(best, nearest, forest, distances, sites, metrics);
+            if( remaining > 2 ) {
+                minimum[best] = distances.get(best, nearestNeighbor(best, forest, distances, rank));
+            }
+        }
+        int root = 0;
+        while( forest[root] == null ) {
+            root++;
+        }
+        return forest[root];
+    }
+
+    // ranks
+    // Pre-conditions:
+    //        - leaves holds one single-node tree per species
+    // Post-conditions:
+    //        - Returns the position of each leaf's label among all of the
+    //          labels in alphabetical order, if the labels are distinct and
+    //          no label has a character at or before '+'
+    //        - Else returns null
+    static int[] ranks(PhyloTreeNode[] leaves) {
+        int n = leaves.length;
+        String[] labels = new String[n];
+        Integer[] order = new Integer[n];
+        for( int i=0; i<n; i++ ) {
+            labels[i] = leaves[i].getLabel();
+            for( int j=0; j<labels[i].length(); j++ ) {
+                if( labels[i].charAt(j) <= '+' ) {
+                    return null;
+                }
+            }
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparing(i -> labels[i]));
+        int[] rank = new int[n];
+        for( int r=0; r<n; r++ ) {
+            if( r > 0 && labels[order[r]].equals(labels[order[r-1]]) ) {
+                return null;
+            }
+            rank[order[r]] = r;
+        }
+        return rank;
+    }
+
+    // nearestNeighbor
+    // Pre-conditions:
+    //        - forest[row] is a tree still in the forest, and at least one other remains
+    //        - rank holds the rank of each tree (see above)
+    // Post-conditions:
+    //        - Returns the row of the tree closest to forest[row], the
+    //          lowest ranked of those at the same distance
+    private static int nearestNeighbor(int row, PhyloTreeNode[] forest, DistanceMatrix distances, int[] rank) {
+        int best = -1;
+        double bestDist = Double.POSITIVE_INFINITY;
+        for( int i=0; i<forest.length; i++ ) {
+            if( i == row || forest[i] == null ) {
+                continue;
+            }
+            double dist = distances.get(row, i);
+            if( best == -1 || dist < bestDist || (dist == bestDist && rank[i] < rank[best]) ) {
+                best = i;
+                bestDist = dist;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * NeighborJoiningEngine.java
+ *
+ * A ClusteringEngine that builds a Neighbor-Joining tree, which unlike
+ * UPGMA does not assume that every species evolved at the same rate.
+ *
+ * With r trees left, NJ joins the pair (i,j) with the smallest
+ *
+ *   q(i,j) = (r-2) d(i,j) - R(i) - R(j),   R(i) = sum of d(i,k) over all k
+ *
+ * and the distances to the joined tree u are d(u,k) = (d(i,k) + d(j,k) -
+ * d(i,j)) / 2.  Ties in q are broken by joined label, as in
+ * AgglomerativeEngine, and the joined tree is labelled and ordered as
+ * usual.
+ *
+ * Evaluating q for every pair makes NJ O(n^3).  Like RapidNJ, this engine
+ * skips most pairs with a lower bound.  Each row i keeps a bound
+ *
+ *   bound(i) <= (r-2) d(i,j) - R(j)   for every other tree j
+ *
+ * so that every q(i,j) of the row is at least bound(i) - R(i).  The row
+ * with the smallest bound is scanned first, and then every other row
+ * whose bound is not larger than the best q found so far.  Scanning a row
+ * makes its bound exact.  After a join, r drops by one and every R(j)
+ * drops by (d(a,j) + d(b,j) + d(a,b)) / 2, so a row's bound only has to
+ * drop by its largest distance, less the smallest of those drops; the
+ * joined tree's new column is checked directly.  Typically only a few
+ * rows are scanned per join.  Unlike RapidNJ, no sorted copy of the
+ * matrix is kept, so no memory is needed beyond the matrix itself and a
+ * few numbers per row, and an out-of-core matrix (see
+ * DistanceMatrix.createMapped) can be used.  The row sums are updated as
+ * trees are joined rather than added up again.
+ *
+ * NJ trees are unrooted; the tree returned is rooted at the last join.  A
+ * PhyloTreeNode has one distanceToChild for both children, so it is half
+ * the distance between the joined trees, the mean of NJ's two branch
+ * lengths.
+ *
+ */
+
+import java.util.Arrays;
+
+public class NeighborJoiningEngine extends AgglomerativeEngine {
+
+    // CONSTRUCTOR
+
+    // NeighborJoiningEngine
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - An engine that builds Neighbor-Joining trees has been created
+    //        - getLinkage() is null, since NJ has its own update rule
+    public NeighborJoiningEngine() {
+        super(null);
+    }
+
+    // cluster
+    // Pre-conditions:
+    //        - See ClusteringEngine
+    // Post-conditions:
+    //        - Returns the root of the Neighbor-Joining tree built from all leaves
+    //        - Rows of distances belonging to joined trees are reused for
+    //          the new trees
+    public PhyloTreeNode cluster(PhyloTreeNode[] leaves, DistanceMatrix distances, BuildMetrics metrics) {
+        int n = leaves.length;
+        if( n == 0 ) {
+            return null;
+        }
+        PhyloTreeNode[] forest = leaves.clone();   // forest[i] is the tree in row i (null once joined)
+        double[] sum = new double[n];              // sum[i] is R(i)
+        double[] largest = new double[n];          // largest[i] is at least every distance in row i
+        double[] bound = new double[n];            // bound[i] is the row's lower bound (see above)
+        firstSums(forest, distances, sum, largest);
+        Arrays.fill(bound, Double.NEGATIVE_INFINITY);
+
+        int[] pair = new int[2];
+        for( int remaining = n; remaining > 1; remaining-- ) {
+            if( remaining == 2 ) {
+                pair[0] = -1;
+                for( int i=0; i<n; i++ ) {
+                    if( forest[i] != null ) {
+                        pair[pair[0] == -1 ? 0 : 1] = i;
+                    }
+                }
+            } else {
+                closestPair(remaining, forest, distances, sum, bound, pair);
+            }
+            int a = Math.min(pair[0], pair[1]);
+            int b = Math.max(pair[0], pair[1]);
+            double distAB = distances.get(a, b);
+            double smallestDrop = Double.POSITIVE_INFINITY;
+            for( int k=0; k<n; k++ ) {
+                if( forest[k] != null && k != a && k != b ) {
+                    double distA = distances.get(a, k);
+                    double distB = distances.get(b, k);
+                    sum[k] -= distA + distB;
+                    smallestDrop = Math.min(smallestDrop, (distA + distB + distAB) / 2);
+                }
+            }
+            join(a, b, forest, distances, metrics);
+            sum[a] = 0.0;
+            largest[a] = 0.0;
+            for( int k=0; k<n; k++ ) {
+                if( forest[k] != null && k != a ) {
+                    double dist = distances.get(a, k);
+                    sum[k] += dist;
+                    sum[a] += dist;
+                    largest[k] = Math.max(largest[k], dist);
+                    largest[a] = Math.max(largest[a], dist);
+                }
+            }
+            double factor = remaining - 3;
+            for( int k=0; k<n; k++ ) {
+                if( forest[k] != null && k != a ) {
+                    bound[k] = Math.min(bound[k] - largest[k] + smallestDrop, factor * distances.get(a, k) - sum[a]);
+                }
+            }
+            bound[a] = Double.NEGATIVE_INFINITY;
+        }
+        for( int i=0; i<n; i++ ) {
+            if( forest[i] != null ) {
+                return forest[i];
+            }
+        }
+        return null;
+    }
+
+    // joinedDistance
+    // Pre-conditions:
+    //        - See AgglomerativeEngine
+    // Post-conditions:
+    //        - Returns NJ's distance from the third tree to the joined tree
+    protected double joinedDistance(double distA, double distB, double distAB, double sizeA, double sizeB) {
+        return (distA + distB - distAB) / 2;
+    }
+
+    // firstSums
+    // Pre-conditions:
+    //        - forest holds one tree per row of distances
+    // Post-conditions:
+    //        - sum[i] is the sum and largest[i] the largest (or 0) of the
+    //          distances in row i, for every row, found in one pass over
+    //          the matrix, tile by tile
+    private static void firstSums(PhyloTreeNode[] forest, DistanceMatrix distances, double[] sum, double[] largest) {
+        int n = forest.length;
+        int tile = DistanceFill.TILE;
+        for( int tileRow=0; tileRow<n; tileRow+=tile ) {
+            for( int tileCol=tileRow; tileCol<n; tileCol+=tile ) {
+                int rowEnd = Math.min(n, tileRow + tile);
+                int colEnd = Math.min(n, tileCol + tile);
+                for( int i=tileRow; i<rowEnd; i++ ) {
+                    for( int j=Math.max(i + 1, tileCol); j<colEnd; j++ ) {
+                        double dist = distances.get(i, j);
+                        sum[i] += dist;
+                        sum[j] += dist;
+                        largest[i] = Math.max(largest[i], dist);
+                        largest[j] = Math.max(largest[j], dist);
+                    }
+                }
+            }
+        }
+        return;
+    }
+
+    // closestPair
+    // Pre-conditions:
+    //        - remaining > 2 trees are left in forest
+    //        - sum and bound are right for every row still in the forest
+    // Post-conditions:
+    //        - pair holds the rows of the pair with the smallest q, in the
+    //          strict (q, joined label) order
+    //        - The bound of every row that was scanned is exact
+    private static void closestPair(int remaining, PhyloTreeNode[] forest, DistanceMatrix distances,
+                                    double[] sum, double[] bound, int[] pair) {
+        int n = forest.length;
+        double factor = remaining - 2;
+        int first = -1;
+        for( int i=0; i<n; i++ ) {
+            if( forest[i] != null && (first == -1 || bound[i] - sum[i] < bound[first] - sum[first]) ) {
+                first = i;
+            }
+        }
+
+        double[] best = {Double.POSITIVE_INFINITY};
+        pair[0] = -1;
+        scanRow(first, factor, forest, distances, sum, bound, pair, best);
+        for( int i=0; i<n; i++ ) {
+            if( i == first || forest[i] == null || bound[i] - sum[i] > best[0] ) {
+                continue;
+            }
+            scanRow(i, factor, forest, distances, sum, bound, pair, best);
+        }
+        return;
+    }
+
+    // scanRow
+    // Pre-conditions:
+    //        - forest[row] is a tree still in the forest
+    //        - pair and best hold the best pair found so far (pair[0] is -1
+    //          if none) and its q
+    // Post-conditions:
+    //        - Every pair in the row has been compared with the best pair
+    //        - bound[row] is exact
+    private static void scanRow(int row, double factor, PhyloTreeNode[] forest, DistanceMatrix distances,
+                                double[] sum, double[] bound, int[] pair, double[] best) {
+        double smallest = Double.POSITIVE_INFINITY;
+        for( int j=0; j<forest.length; j++ ) {
+            if( j == row || forest[j] == null ) {
+                continue;
+            }
+            double partial = factor * distances.get(row, j) - sum[j];
+            smallest = Math.min(smallest, partial);
+            double q = partial - sum[row];
+            if( pair[0] == -1 || closerPair(q, forest[row], forest[j], best[0], forest[pair[0]], forest[pair[1]]) ) {
+                pair[0] = row;
+                pair[1] = j;
+                best[0] = q;
+            }
+        }
+        bound[row] = smallest;
+        return;
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * PatristicDistances.java
+ *
+ * Computes the tree-induced (patristic, or cophenetic) distance between
+ * every pair of species in a PhyloTree: the sum of the edge weights on the
+ * path between their leaves, i.e. findEvolutionaryDistance for every pair.
+ *
+ * The leaves are numbered in the order a depth-first walk reaches them,
+ * so the leaves below any node form a contiguous range, split in two by
+ * its children.  The two leaves of a pair below different children of node
+ * v are at distance weightedDepth(a) + weightedDepth(b) - 2*weightedDepth(v),
+ * so each node fills all of its left x right pairs at once and the whole
+ * matrix takes O(n^2) time.  A single row (one species against all others)
+ * takes O(n) time by climbing from the species' leaf to the root, which
+ * lets the matrix be streamed to a file one row at a time.
+ *
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+public class PatristicDistances {
+    private int[] leafSpecies;            // leafSpecies[p] is the species index of the p-th leaf
+    private double[] leafDepth;           // leafDepth[p] is the weighted depth of the p-th leaf
+    private int[] leafParent;             // leafParent[p] is the internal node above the p-th leaf
+    private int[] positionOf;             // positionOf[s] is the leaf position of species s
+    private int[] lo;                     // Leaves of internal node k are positions [lo[k], hi[k]),
+    private int[] mid;                    // with [lo[k], mid[k]) below its left child
+    private int[] hi;
+    private double[] depth;               // depth[k] is the weighted depth of internal node k
+    private int[] parent;                 // parent[k] is the internal node above k (-1 for the root)
+
+    // CONSTRUCTOR
+
+    // PatristicDistances
+    // Pre-conditions:
+    //        - root is the root of a tree whose leaves hold exactly the
+    //          species in species
+    // Post-conditions:
+    //        - The distances of the tree can be queried; species are
+    //          numbered by their position in species
+    public PatristicDistances(PhyloTreeNode root, List<Species> species) {
+        int n = species.size();
+        IdentityHashMap<Species, Integer> index = new IdentityHashMap<Species, Integer>(2 * n);
+        for( int s=0; s<n; s++ ) {
+            index.put(species.get(s), s);
+        }
+        this.leafSpecies = new int[n];
+        this.leafDepth = new double[n];
+        this.leafParent = new int[n];
+        this.positionOf = new int[n];
+        int internal = Math.max(0, n - 1);
+        this.lo = new int[internal];
+        this.mid = new int[internal];
+        this.hi = new int[internal];
+        this.depth = new double[internal];
+        this.parent = new int[internal];
+        if( root == null ) {
+            return;
+        }
+
+        // depth-first walk; each stack entry is a node, its internal number
+        // (if any) and how many of its children have been visited
+        PhyloTreeNode[] stackNode = new PhyloTreeNode[2 * n];
+        int[] stackId = new int[2 * n];
+        int[] stackVisited = new int[2 * n];
+        double[] stackDepth = new double[2 * n];
+        int top = 0;
+        int nextInternal = 0;
+        int nextLeaf = 0;
+        stackNode[0] = root;
+        stackDepth[0] = 0.0;
+        stackVisited[0] = 0;
+        stackId[0] = root.isLeaf() ? -1 : nextInternal++;
+        if( stackId[0] >= 0 ) {
+            this.lo[0] = 0;
+            this.depth[0] = 0.0;
+            this.parent[0] = -1;
+        }
+        while( top >= 0 ) {
+            PhyloTreeNode node = stackNode[top];
+            int id = stackId[top];
+            if( node.isLeaf() ) {
+                int s = index.get(node.getSpecies());
+                this.leafSpecies[nextLeaf] = s;
+                this.leafDepth[nextLeaf] = stackDepth[top];
+                this.leafParent[nextLeaf] = (top > 0) ? stackId[top-1] : -1;
+                this.positionOf[s] = nextLeaf;
+                nextLeaf++;
+                top--;
+            } else if( stackVisited[top] == 2 ) {
+                this.hi[id] = nextLeaf;
+                top--;
+            } else {
+                if( stackVisited[top] == 1 ) {
+                    this.mid[id] = nextLeaf;
+                }
+                PhyloTreeNode child = (stackVisited[top] == 0) ? node.getLeftChild() : node.getRightChild();
+                double childDepth = stackDepth[top] + node.getDistanceToChild();
+                stackVisited[top]++;
+                top++;
+                stackNode[top] = child;
+                stackDepth[top] = childDepth;
+                stackVisited[top] = 0;
+                stackId[top] = child.isLeaf() ? -1 : nextInternal++;
+                if( stackId[top] >= 0 ) {
+                    this.lo[stackId[top]] = nextLeaf;
+                    this.depth[stackId[top]] = childDepth;
+                    this.parent[stackId[top]] = id;
+                }
+            }
+        }
+        return;
+    }
+
+    // size
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the number of species
+    public int size() {
+        return this.leafSpecies.length;
+    }
+
+    // fill
+    // Pre-conditions:
+    //        - matrix is size() x size()
+    // Post-conditions:
+    //        - matrix.get(s,t) is the patristic distance between species s and t
+    public void fill(DistanceMatrix matrix) {
+        for( int k=0; k<this.lo.length; k++ ) {
+            double twice = 2 * this.depth[k];
+            for( int a=this.lo[k]; a<this.mid[k]; a++ ) {
+                for( int b=this.mid[k]; b<this.hi[k]; b++ ) {
+                    matrix.set(this.leafSpecies[a], this.leafSpecies[b], this.leafDepth[a] + this.leafDepth[b] - twice);
+                }
+            }
+        }
+        return;
+    }
+
+    // row
+    // Pre-conditions:
+    //        - 0 <= s < size() and row has size() entries
+    // Post-conditions:
+    //        - row[t] is the patristic distance between species s and t
+    public void row(int s, double[] row) {
+        int p = this.positionOf[s];
+        row[s] = 0.0;
+        for( int k = this.leafParent[p]; k >= 0; k = this.parent[k] ) {
+            int from = (p < this.mid[k]) ? this.mid[k] : this.lo[k];
+            int to = (p < this.mid[k]) ? this.hi[k] : this.mid[k];
+            double twice = 2 * this.depth[k];
+            for( int b=from; b<to; b++ ) {
+                row[this.leafSpecies[b]] = this.leafDepth[p] + this.leafDepth[b] - twice;
+            }
+        }
+        return;
+    }
+
+    // write
+    // Pre-conditions:
+    //        - filename is the path of a file to (over)write
+    // Post-conditions:
+    //        - The file holds the full matrix, one row at a time: the number
+    //          of species as an int, then size() rows of size() values, as
+    //          floats if singlePrecision, else as doubles, all
+    //          little-endian like TreeFile and DistanceCache files
+    //        - Only one row is held in memory at a time
+    public void write(String filename, boolean singlePrecision) throws IOException {
+        int n = size();
+        double[] row = new double[n];
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+        FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            buffer.putInt(n);
+            for( int s=0; s<n; s++ ) {
+                row(s, row);
+                for( int t=0; t<n; t++ ) {
+                    if( buffer.remaining() < 8 ) {
+                        flush(buffer, channel);
+                    }
+                    if( singlePrecision ) {
+                        buffer.putFloat((float)row[t]);
+                    } else {
+                        buffer.putDouble(row[t]);
+                    }
+                }
+            }
+            flush(buffer, channel);
+        } finally {
+            channel.close();
+        }
+        return;
+    }
+
+    // flush
+    // Pre-conditions:
+    //        - buffer holds the bytes written since it was last cleared
+    // Post-conditions:
+    //        - Those bytes have been written to channel, and buffer cleared
+    private static void flush(ByteBuffer buffer, FileChannel channel) throws IOException {
+        buffer.flip();
+        while( buffer.hasRemaining() ) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+        return;
+    }
+}
@@ -21,11 +21,16 @@ import java.util.*;
 import java.io.*;
 
 public class PhyloTree {
-   private static PhyloTreeNode overallRoot;    // The actual root of the overall tree
+   private PhyloTreeNode overallRoot;    // The actual root of the overall tree
    private int printingDepth;            // How many spaces to indent the deepest 
                                           // node when printing
    private int numSpecies = 0;
-   private static ArrayList<Species> descendents = new ArrayList<Species>();
+   private BuildOptions options;         // Settings used by buildTree
+   private HashMap<String, PhyloTreeNode> labelIndex = new HashMap<String, PhyloTreeNode>();   // Every node, by label (replaced, never changed in place)
+   private CompactTree compactTree;      // The tree's storage if options.isCompact(), else null
+   private LcaIndex lcaIndex = new LcaIndex(null);   // Answers findLeastCommonAncestor and findEvolutionaryDistance
+   private ArrayList<Species> descendents = new ArrayList<Species>();
+   private BuildMetrics buildMetrics;    // What happened in the last build (null if loaded from a file)
 
     // CONSTRUCTOR
 
@@ -46,25 +51,32 @@ public class PhyloTree {
     //          and exit with status (return code) 1
     //        - Most of this should be accomplished by calls to loadSpeciesFile and buildTree
    public PhyloTree(String speciesFile, int printingDepth) {
-        //test to see if file is valid, then send to loadSpeciesFile
-      Scanner input;
+      this(speciesFile, printingDepth, new BuildOptions());
+   }
+
+    // PhyloTree
+    // Pre-conditions:
+    //        - speciesFile contains the path of a valid FASTA input file
+    //        - printingDepth is a positive number
+    //        - options holds the settings to build the tree with
+    // Post-conditions:
+    //        - Same as the constructor above, with the tree built according
+    //          to options
+   public PhyloTree(String speciesFile, int printingDepth, BuildOptions options) {
+      this.options = options;
+      //read the file once; the reader counts the species as it goes
+      FastaReader reader = new FastaReader();
+      BuildMetrics metrics = new BuildMetrics(options.getListener());
       try{
-         //open Scanner
-         input = new Scanner(new File(speciesFile));
-         //call loadSpeciesFile
-         this.numSpecies = 0;
-         while(input.hasNext()){
-            if(input.next().contains(">")){
-               numSpecies ++;
-               
-            }
-         }
-         //System.out.println("counting..." + numSpecies);
-         Species[] speciesObj = (loadSpeciesFile(speciesFile));
-         buildTree(speciesObj);
-         descendents = new ArrayList<Species>(Arrays.asList(speciesObj));
+         metrics.startPhase(BuildPhase.PARSE);
+         Species[] speciesObj = reader.read(speciesFile);
+         metrics.parsed(reader.getBytesRead());
+         metrics.endPhase();
+         this.numSpecies = reader.getHeaderCount();
+         buildTree(speciesObj, metrics);
+         this.descendents = new ArrayList<Species>(Arrays.asList(speciesObj));
       }
-      catch(FileNotFoundException ex){
+      catch(IOException ex){
          System.out.println("*Error: Unable to open file " + speciesFile);
          System.exit(1);        
       }
@@ -73,6 +85,83 @@ public class PhyloTree {
       return;
    }
 
+    // PhyloTree
+    // Pre-conditions:
+    //        - speciesFile contains the path of a valid FASTA input file
+    //        - printingDepth is a positive number
+    //        - engine is the algorithm to build the tree with, e.g. a
+    //          NeighborJoiningEngine or a NearestNeighborChainEngine with
+    //          another Linkage
+    // Post-conditions:
+    //        - Same as the first constructor, with the tree built by engine
+   public PhyloTree(String speciesFile, int printingDepth, ClusteringEngine engine) {
+      this(speciesFile, printingDepth, optionsFor(engine));
+   }
+
+    // PhyloTree
+    // Pre-conditions:
+    //        - species contains the species to build the tree from, all
+    //          with aligned sequences
+    //        - printingDepth is a positive number
+    //        - options holds the settings to build the tree with
+    // Post-conditions:
+    //        - Same as the constructors above, for species that have
+    //          already been loaded
+   public PhyloTree(Species[] species, int printingDepth, BuildOptions options) {
+      this.options = options;
+      this.numSpecies = species.length;
+      buildTree(species, new BuildMetrics(options.getListener()));
+      this.descendents = new ArrayList<Species>(Arrays.asList(species));
+      this.printingDepth = printingDepth;
+      return;
+   }
+
+    // PhyloTree
+    // Pre-conditions:
+    //        - file holds a tree loaded from a tree file
+    //        - printingDepth is a positive number
+    // Post-conditions:
+    //        - The tree has been set up from the file, as a CompactTree,
+    //          without building it again
+   private PhyloTree(TreeFile file, int printingDepth) {
+      this.options = new BuildOptions();
+      this.options.setCompact(true);
+      this.compactTree = file.getTree();
+      this.overallRoot = this.compactTree.getRoot();
+      this.numSpecies = file.getSpecies().length;
+      this.descendents = new ArrayList<Species>(Arrays.asList(file.getSpecies()));
+      this.labelIndex = null;
+      this.lcaIndex = (file.getLcaIndex() != null) ? file.getLcaIndex() : new LcaIndex(this.overallRoot);
+      this.printingDepth = printingDepth;
+   }
+
+    // optionsFor
+    // Pre-conditions:
+    //        - engine is non-null
+    // Post-conditions:
+    //        - Returns the default options, with engine as the engine
+   private static BuildOptions optionsFor(ClusteringEngine engine) {
+      BuildOptions options = new BuildOptions();
+      options.setEngine(engine);
+      return options;
+   }
+
+    // load
+    // Pre-conditions:
+    //        - filename is the path of a file written by save
+    //        - printingDepth is a positive number
+    // Post-conditions:
+    //        - Returns the saved tree, loaded from the file instead of
+    //          rebuilt from its FASTA file
+    //        - Throws IOException if the file cannot be read or is not a
+    //          valid tree file (see TreeFile)
+    // Notes:
+    //        - The species' sequences are not saved, so getAllSpecies returns
+    //          species with empty sequences
+   public static PhyloTree load(String filename, int printingDepth) throws IOException {
+      return new PhyloTree(new TreeFile(filename), printingDepth);
+   }
+
     // ACCESSORS
 
     // getOverallRoot
@@ -84,6 +173,29 @@ public class PhyloTree {
       return this.overallRoot;
    }
 
+    // getBuildMetrics
+    // Pre-conditions:
+    //    - None
+    // Post-conditions:
+    //    - Returns the phase timings and counts of the last time the tree
+    //      was built (see BuildMetrics), or null if it was loaded from a file
+   public BuildMetrics getBuildMetrics() {
+      return this.buildMetrics;
+   }
+
+    // snapshot
+    // Pre-conditions:
+    //    - None
+    // Post-conditions:
+    //    - Returns an immutable snapshot of the tree as it is now, whose
+    //      queries can be called from any number of threads (see TreeSnapshot)
+    // Notes:
+    //    - Takes O(n) time, to copy the species list
+   public TreeSnapshot snapshot() {
+      return new TreeSnapshot(this.overallRoot, this.labelIndex, this.compactTree, this.lcaIndex,
+                              this.descendents.toArray(new Species[this.descendents.size()]));
+   }
+
     // toString 
     // Pre-conditions:
     //    - None
@@ -95,49 +207,51 @@ public class PhyloTree {
     //    - Can be a simple wrapper around the following toString
     //    - Hint: StringBuilder is much faster than repeated concatenation
    public String toString() {
-      return toString(this.getOverallRoot(), this.getWeightedHeight(), this.getWeightedHeight());
+      StringBuilder sb = new StringBuilder();
+      try{
+         writeString(sb);
+      }
+      catch(IOException ex){
+         //a StringBuilder never throws
+         throw new UncheckedIOException(ex);
+      }
+      return sb.toString();
    }
 
-    // toString 
+    // writeString
     // Pre-conditions:
-    //    - node points to the root of a tree you intend to print
-    //    - weightedDepth is the sum of the edge weights from the
-    //      overall root to the current root
-    //    - maxDepth is the weighted depth of the overall tree
+    //    - out is where the tree should be written, e.g. a Writer
     // Post-conditions:
-    //    - Returns a string representation of the tree
+    //    - The same text as toString() has been appended to out
     // Notes:
-    //    - See assignment description for proper format
-   private String toString(PhyloTreeNode node, double weightedDepth, double maxDepth) {
-      StringBuilder sb = new StringBuilder();
-      String dist = "";
-      if(node != null){
-         //double k = this.printingDepth*(this.weightedNodeHeight(node)/this.getWeightedHeight());
-         int k = (int)(this.printingDepth*(weightedDepth/maxDepth));
-         //System.out.println("K: " + k);
-         if(!node.isLeaf()){
-            //toString(node.rightChild, weightedDepth, maxDepth)
-            sb.append(toString(node.getRightChild(), weightedNodeDepth(node.getRightChild()), maxDepth));
-         
-            //print k periods, k = printingdepth * (this.getWeightedHeight()/this.getHeight())
-            for(int i=0; i<=k; i++){
-               sb.append(".");
+    //    - Nothing is built up in memory, so large trees can be written
+    //      straight to a file
+   public void writeString(final Appendable out) throws IOException {
+      final double maxDepth = this.getWeightedHeight();
+      final FixedPoint format = new FixedPoint(2);
+      //reverse in-order [RNL] walk; the walker carries each node's weighted depth down
+      new TreeWalker().walkReversed(this.getOverallRoot(), new TreeVisitor<IOException>() {
+         public void inVisit(PhyloTreeNode node, int depth, double weightedDepth) throws IOException {
+            //the root is indented as if it were at the maximum depth
+            double printedDepth = (depth == 0) ? maxDepth : weightedDepth;
+            int k = (int)(printingDepth*(printedDepth/maxDepth));
+            if(!node.isLeaf()){
+               //print k periods, k = printingdepth * (this.getWeightedHeight()/this.getHeight())
+               for(int i=0; i<=k; i++){
+                  out.append('.');
+               }
+               out.append("[NONTERM ");
+               format.append(out, node.getDistanceToChild());
+               out.append("]\n");
             }
-            dist = String.format("%.2f", node.getDistanceToChild());
-            sb.append("[NONTERM " + dist + "]" + "\n");
-            
-            //toString(node.leftChild, weightedDepth, maxDepth)
-            sb.append(toString(node.getLeftChild(), weightedNodeDepth(node.getLeftChild()), maxDepth));
-         }
-         else{
-            for(int i=0; i<k; i++){
-               sb.append(".");
+            else{
+               for(int i=0; i<k; i++){
+                  out.append('.');
+               }
+               out.append(node.getLabel()).append('\n');
             }
-            sb.append(node.getLabel() + "\n");
          }
-      
-      }
-      return sb.toString();
+      });
    }
 
     // toTreeString 
@@ -149,40 +263,70 @@ public class PhyloTree {
     //    - See assignment description for format details
     //    - Can be a simple wrapper around the following toTreeString
    public String toTreeString() {
-      return toTreeString(this.getOverallRoot());
+      StringBuilder sb = new StringBuilder();
+      try{
+         writeTreeString(sb);
+      }
+      catch(IOException ex){
+         //a StringBuilder never throws
+         throw new UncheckedIOException(ex);
+      }
+      return sb.toString();
    }
 
-    // toTreeString 
+    // writeTreeString
     // Pre-conditions:
-    //    - node points to the root of a tree you intend to print
+    //    - out is where the tree should be written, e.g. a Writer
     // Post-conditions:
-    //    - Returns a string representation in tree format
-    // Notes:
-    //    - See assignment description for proper format
-   private String toTreeString(PhyloTreeNode node) {
-      StringBuilder sb = new StringBuilder();
-      String val = "";
-      if(node.isLeaf()){
-         //Print label:weight
-         val = String.format("%.5f", node.getParent().getDistanceToChild());
-      
-         sb.append(node.getLabel() + ":" + val);
-         //weight is distance to parent, weight is up to five decimal places
-      }
-      else{
-         sb.append("(");
-         sb.append(toTreeString(node.getRightChild()));
-         sb.append(",");
-         sb.append(toTreeString(node.getLeftChild()));
-         if(node == this.getOverallRoot()){
-            sb.append(")");
+    //    - The same text as toTreeString() has been appended to out
+   public void writeTreeString(final Appendable out) throws IOException {
+      writeTreeString(this.getOverallRoot(), out);
+   }
+
+    // writeTreeString
+    // Pre-conditions:
+    //    - root is null or points to a node in a phylogenetic tree structure
+    //    - out is where the tree should be written
+    // Post-conditions:
+    //    - The subtree rooted at root has been appended to out in tree
+    //      format, without root's own weight
+   static void writeTreeString(final PhyloTreeNode root, final Appendable out) throws IOException {
+      final FixedPoint format = new FixedPoint(5);
+      final TreeWalker walker = new TreeWalker();
+      walker.walkReversed(root, new TreeVisitor<IOException>() {
+         public boolean preVisit(PhyloTreeNode node, int depth, double weightedDepth) throws IOException {
+            if(!node.isLeaf()){
+               out.append('(');
+            }
+            return true;
          }
-         else{
-            val = String.format("%.5f", node.getDistanceToChild());
-            sb.append("):" + val);
+         
+         public void inVisit(PhyloTreeNode node, int depth, double weightedDepth) throws IOException {
+            if(!node.isLeaf()){
+               out.append(',');
+            }
          }
-      }
-      return sb.toString();
+         
+         public void postVisit(PhyloTreeNode node, int depth, double weightedDepth) throws IOException {
+            if(node.isLeaf()){
+               //Print label:weight
+               //weight is distance to parent, weight is up to five decimal places
+               //(the parent the walk came from, so no parent link is followed)
+               out.append(node.getLabel());
+               if(node != root){
+                  out.append(':');
+                  format.append(out, walker.parent(depth).getDistanceToChild());
+               }
+            }
+            else{
+               out.append(')');
+               if(node != root){
+                  out.append(':');
+                  format.append(out, node.getDistanceToChild());
+               }
+            }
+         }
+      });
    }
 
     // getHeight
@@ -192,6 +336,7 @@ public class PhyloTree {
     //    - Returns the tree height as defined in class
     // Notes:
     //    - Can be a simple wrapper on nodeHeight
+    //    - O(1): every node caches its height when it is created
    public int getHeight() {
       return nodeHeight(this.getOverallRoot());
    }
@@ -205,6 +350,7 @@ public class PhyloTree {
     //      to any leaf node.
     // Notes:
     //   - Can be a simple wrapper for weightedNodeHeight
+    //   - O(1): every node caches its weighted height when it is created
    public double getWeightedHeight() {
       return weightedNodeHeight(this.getOverallRoot());
    }
@@ -231,8 +377,6 @@ public class PhyloTree {
     // Notes:
     //    - Non-terminals do not represent species
    public java.util.ArrayList<Species> getAllSpecies() {
-      //getAllDescendantSpecies(this.getOverallRoot(), this.descendents);
-      //Collections.sort(descendents, new Comparator<Species>());
       return this.descendents;
    }
 
@@ -244,7 +388,11 @@ public class PhyloTree {
     //    - If found: returns the PhyloTreeNode with the specified label
     //    - If not found: returns null
    public PhyloTreeNode findTreeNodeByLabel(String label) {
-      return findTreeNodeByLabel(this.getOverallRoot(), label);
+      //every node is indexed by label when the tree is built
+      if(this.compactTree != null){
+         return this.compactTree.find(label);
+      }
+      return this.labelIndex.get(label);
    }
 
     // findLeastCommonAncestor
@@ -257,13 +405,11 @@ public class PhyloTree {
     //      Put another way, the least common ancestor of nodes A and B
     //      is the only node in the tree where A is in the left tree
     //      and B is in the right tree (or vice-versa)
-    // Notes:
-    //    - Can be a wrapper around the static findLeastCommonAncestor
    public PhyloTreeNode findLeastCommonAncestor(String label1, String label2) {
    
       //search for the node associated with the labels
-      //call findLeastCommonAncestor that takes in two nodes --> findLeastCommonAncestor(node1, node2)
-      return findLeastCommonAncestor(findTreeNodeByLabel(label1),findTreeNodeByLabel(label2));
+      //the LCA index answers in constant time, see LcaIndex
+      return this.lcaIndex.lca(findTreeNodeByLabel(label1),findTreeNodeByLabel(label2));
    }
     
     // findEvolutionaryDistance
@@ -275,38 +421,107 @@ public class PhyloTree {
     //      along the paths from their least common ancestor to each of
     //      the two nodes
    public double findEvolutionaryDistance(String label1, String label2) {
-      PhyloTreeNode node1 = findTreeNodeByLabel(label1);
-      PhyloTreeNode node2 = findTreeNodeByLabel(label2);
-   
-      if(node1 == null || node2 == null){
-         return Double.POSITIVE_INFINITY;
-      }
-      else{
-         double sum = 0.0;
-      
-               //evolutionary distance can be found by traversing from ancestor to node1 and to node2
-      //we will return the sum of weights from the ancestor to node1 and the ancestor to node2
-      
-         while(nodeDepth(node1) != nodeDepth(node2)){
-            //sum the weights along this path, add to sum
-            if(nodeDepth(node1) > nodeDepth(node2)){
-               node1 = node1.getParent();
-               sum += node1.getDistanceToChild();
-            }
-            else{
-               node2 = node2.getParent();
-               sum += node2.getDistanceToChild();
-            }
-         }
-         while(node2 != node1){
-            //sum the weights along this path, add to sum
-            node1 = node1.getParent();
-            sum += node1.getDistanceToChild();
-            node2 = node2.getParent();
-            sum += node2.getDistanceToChild();
-         }
-         return sum;      
-      }
+      //the LCA index keeps every node's weighted depth, so the distance is
+      //weightedDepth(node1) + weightedDepth(node2) - 2*weightedDepth(ancestor)
+      return this.lcaIndex.distance(findTreeNodeByLabel(label1), findTreeNodeByLabel(label2));
+   }
+
+    // resolveLabels
+    // Pre-conditions:
+    //    - labels and ids hold at least count entries
+    //    - parallelism is the number of threads to use (at least 1)
+    // Post-conditions:
+    //    - ids[i] is the node id of the node labelled labels[i], or -1 if
+    //      there is none, for every i < count
+    // Notes:
+    //    - Node ids are for the batch methods below and getNodeById; they
+    //      are only good until the tree changes (addSpecies or rebuild)
+   public void resolveLabels(String[] labels, int[] ids, int count, int parallelism) {
+      BatchQuery.resolve(this.lcaIndex, this::findTreeNodeByLabel, labels, ids, count, parallelism);
+   }
+
+    // getNodeById
+    // Pre-conditions:
+    //    - id is a node id (see resolveLabels) or -1
+    // Post-conditions:
+    //    - Returns the node with the given id (null for -1)
+   public PhyloTreeNode getNodeById(int id) {
+      return this.lcaIndex.node(id);
+   }
+
+    // findEvolutionaryDistances
+    // Pre-conditions:
+    //    - ids1, ids2 and distances hold at least count entries, the ids
+    //      being node ids (see resolveLabels) or -1
+    //    - parallelism is the number of threads to use (at least 1)
+    // Post-conditions:
+    //    - distances[i] is the evolutionary distance between nodes ids1[i]
+    //      and ids2[i] (POSITIVE_INFINITY if either is -1), for every i < count
+    // Notes:
+    //    - Nothing is allocated per pair; see BatchQuery
+   public void findEvolutionaryDistances(int[] ids1, int[] ids2, double[] distances, int count, int parallelism) {
+      BatchQuery.distances(this.lcaIndex, ids1, ids2, distances, count, parallelism);
+   }
+
+    // findEvolutionaryDistances
+    // Pre-conditions:
+    //    - labels1, labels2 and distances hold at least count entries
+    //    - parallelism is the number of threads to use (at least 1)
+    // Post-conditions:
+    //    - distances[i] is findEvolutionaryDistance(labels1[i], labels2[i]),
+    //      for every i < count
+    // Notes:
+    //    - Each label is looked up once; when the same labels are queried
+    //      again and again, resolveLabels once and query by id instead
+   public void findEvolutionaryDistances(String[] labels1, String[] labels2, double[] distances, int count, int parallelism) {
+      BatchQuery.distances(this.lcaIndex, this::findTreeNodeByLabel, labels1, labels2, distances, count, parallelism);
+   }
+
+    // findLeastCommonAncestors
+    // Pre-conditions:
+    //    - ids1, ids2 and ancestors hold at least count entries, the ids
+    //      being node ids (see resolveLabels) or -1
+    //    - parallelism is the number of threads to use (at least 1)
+    // Post-conditions:
+    //    - ancestors[i] is the node id of the least common ancestor of nodes
+    //      ids1[i] and ids2[i] (-1 if either is -1), for every i < count
+   public void findLeastCommonAncestors(int[] ids1, int[] ids2, int[] ancestors, int count, int parallelism) {
+      BatchQuery.ancestors(this.lcaIndex, ids1, ids2, ancestors, count, parallelism);
+   }
+
+    // getPatristicMatrix
+    // Pre-conditions:
+    //    - None
+    // Post-conditions:
+    //    - Returns the matrix of findEvolutionaryDistance between every pair
+    //      of species, with species numbered as in getAllSpecies
+    // Notes:
+    //    - Takes O(n^2) time in a single pass over the tree, see PatristicDistances
+   public DistanceMatrix getPatristicMatrix() {
+      DistanceMatrix matrix = DistanceMatrix.create(this.descendents.size(), false, false);
+      new PatristicDistances(this.getOverallRoot(), this.descendents).fill(matrix);
+      return matrix;
+   }
+
+    // writePatristicMatrix
+    // Pre-conditions:
+    //    - filename is the path of a file to (over)write
+    // Post-conditions:
+    //    - The file holds the same distances as getPatristicMatrix, streamed
+    //      one row at a time (see PatristicDistances.write for the layout)
+   public void writePatristicMatrix(String filename, boolean singlePrecision) throws IOException {
+      new PatristicDistances(this.getOverallRoot(), this.descendents).write(filename, singlePrecision);
+   }
+
+    // save
+    // Pre-conditions:
+    //    - filename is the path of a file to (over)write
+    // Post-conditions:
+    //    - The tree has been saved in filename in the binary format of
+    //      TreeFile, with its LCA index if withIndexes (a larger file,
+    //      but load then skips building the index)
+   public void save(String filename, boolean withIndexes) throws IOException {
+      TreeFile.write(this.getOverallRoot(), this.descendents, withIndexes ? this.lcaIndex : null, filename);
    }
 
     // MODIFIER
@@ -325,98 +540,256 @@ public class PhyloTree {
     //    - Be sure to use the tie-breaking conventions described in the pdf
     //    - Important hint: although the distances are defined recursively, you
     //      do NOT want to implement them recursively, as that would be very inefficient
-   private void buildTree(Species[] species) {
-      //create a Hashtable<String, PhyloTreeNode> of nodes, called forestMap
-      HashMap<String, PhyloTreeNode> forestMap = new HashMap<String, PhyloTreeNode>();     
-      //create distance hashMap using MultiKeyMap class, called distanceMap
-      MultiKeyMap distanceMap = new MultiKeyMap();
-      
-      //filling forestMap
+    //    - Each phase is timed and counted in metrics, which is then finished
+    //      and kept as this.buildMetrics
+   private void buildTree(Species[] species, BuildMetrics metrics) {
+      metrics.setSpeciesCount(species.length);
+      this.buildMetrics = metrics;
+      //create the forest, one single-node tree per species, in matrix row order
+      //(as views of a CompactTree, if asked for)
+      PhyloTreeNode[] forest = new PhyloTreeNode[species.length];
+      this.compactTree = this.options.isCompact() ? new CompactTree(species) : null;
       for(int i=0; i<species.length; i++){
-         PhyloTreeNode node = new PhyloTreeNode(null, species[i]);
-         forestMap.put(species[i].getName(), node);
+         forest[i] = (this.compactTree != null) ? this.compactTree.node(i) : new LinkedTreeNode(null, species[i]);
       }
       
-      //filling distanceMap
-      for(int i=0; i<species.length; i++){
-         for(int j=0; j<species.length; j++){
-            distanceMap.put(species[i].getName(), species[j].getName(), Species.distance(species[i], species[j]));
+      //filling distances; only the upper triangle is stored, so each pair is computed once
+      //(or not at all, if the same species were built before with a cache)
+      metrics.startPhase(BuildPhase.DISTANCES);
+      File outOfCore = this.options.getOutOfCoreDirectory();
+      DistanceCache cache = (outOfCore == null) ? this.options.getDistanceCache() : null;
+      boolean single = this.options.isSinglePrecision();
+      String key = (cache != null) ? DistanceCache.key(species) : null;
+      DistanceMatrix distances = (cache != null) ? cache.get(key, species.length, single) : null;
+      if(distances != null){
+         metrics.matrix(distances, false);
+      }
+      else{
+         distances = createMatrix(species.length, single, outOfCore);
+         metrics.matrix(distances, true);
+         DistanceFill.fill(species, distances, this.options.getParallelism(), metrics);
+         if(cache != null){
+            //the engine overwrites the matrix, so it is saved before clustering
+            cache.put(key, distances, single);
          }
       }
-      //create smallDist
-      double smallDist;
-      //initialize variables
-      double otherDist1 = 0.0;
-      double otherDist2 = 0.0;
-      String sp1 = "";
-      String sp2 = "";
-      PhyloTreeNode node1 = null;
-      PhyloTreeNode node2 = null;
-      PhyloTreeNode parentnode = null;
-      String parentlabel = "";
       
-      while(forestMap.size() > 1){
-         smallDist = Double.MAX_VALUE;
-         //find smallest distance between two nodes in the forestMap
+      //join the forest into a single tree; the engine follows the tie-breaking
+      //and labelling conventions, see ClusteringEngine
+      metrics.endPhase();
+      metrics.startPhase(BuildPhase.CLUSTERING);
+      this.overallRoot = this.options.getEngine().cluster(forest, distances, metrics);
+      metrics.endPhase();
       
-         for(Map.Entry<String, PhyloTreeNode> entry1 : forestMap.entrySet()){
-            for(Map.Entry<String, PhyloTreeNode> entry2 : forestMap.entrySet()){ 
-               //if smaller, update smallDist, store the corresponding nodes
-               if(distanceMap.getVal(entry1.getKey(), entry2.getKey()) != null){
-                  if(distanceMap.getVal(entry1.getKey(), entry2.getKey()) < smallDist && !entry1.getKey().equals(entry2.getKey())){
-                  //smallDist is the value/distance associated w/ the two nodes --> uses getVal(String1, String2) from MultiKeyMap                  
-                     smallDist = distanceMap.getVal(entry1.getKey(), entry2.getKey());
-                  //saving species labels and nodes associated  
-                     sp1 = entry1.getKey();
-                     sp2 = entry2.getKey();
-                     node1 = entry1.getValue();
-                     node2 = entry2.getValue();
-                  }
-               }
+      //index every node by label for findTreeNodeByLabel; a CompactTree
+      //finds nodes by label itself, without storing the labels
+      metrics.startPhase(BuildPhase.INDEXING);
+      this.labelIndex = null;
+      if(this.compactTree == null){
+         final HashMap<String, PhyloTreeNode> index = new HashMap<String, PhyloTreeNode>(4 * species.length);
+         new TreeWalker().walk(this.overallRoot, new TreeVisitor<RuntimeException>() {
+            public boolean preVisit(PhyloTreeNode node, int depth, double weightedDepth) {
+               index.put(node.getLabel(), node);
+               return true;
             }
-         } 
-      
-         //remove two nodes associated w/ labels from forestMap
-         forestMap.remove(sp1);
-         forestMap.remove(sp2);
-         
-         //create parent node (use 2nd constructer from PhyloTreeNode class --> PhyloTreeNode(label, parent, leftChild, rightChild, double distanceToChild) )
-         
-         //determine left child and right child (left child is alphabetically earlier)
-         //create parent label --> leftchildlabel + rightchildlabel
-         //insert parent to forestMap
-         if(sp1.compareTo(sp2) <= 0){
-            //entry1 is alphabetically first
-            parentlabel = sp1 + "+" + sp2;
-            parentnode = new PhyloTreeNode(parentlabel, null, node1, node2, smallDist/2); 
-         }
-         else{
-            //entry2 is alphabetically first
-            parentlabel = sp2 + "+" + sp1;
-            parentnode = new PhyloTreeNode(parentlabel, null, node2, node1, smallDist/2);      
-         }  
-         //setting parent nodes 
-         node1.setParent(parentnode);
-         node2.setParent(parentnode);
-         
-         
-         //iterate over forestMap and fill distanceMap with distances from parent to other nodes
-         for(Map.Entry<String, PhyloTreeNode> entry3 : forestMap.entrySet()){
-            //find distance between parentnode and other nodes in forestmap<String, Node>
-            if(!entry3.getKey().equals(parentlabel)){
-               otherDist1 = (((double)node1.getNumLeafs()) / ((double)(node2.getNumLeafs()) + ((double)node1.getNumLeafs()))) * distanceMap.getVal(sp1, entry3.getKey());
-               otherDist2 = (((double)node2.getNumLeafs()) / ((double)(node2.getNumLeafs()) + ((double)node1.getNumLeafs()))) * distanceMap.getVal(sp2, entry3.getKey());
-               //store distance found in distanceMap<String, String, double>
-               distanceMap.put(parentlabel, entry3.getKey(), otherDist1+otherDist2);
+         });
+         this.labelIndex = index;
+      }
+      this.lcaIndex = new LcaIndex(this.overallRoot);
+      metrics.endPhase();
+      metrics.finished();
+      return;
+   }
+   
+    // createMatrix
+    // Pre-conditions:
+    //    - outOfCore is the directory to keep the matrix in, or null
+    // Post-conditions:
+    //    - Returns an empty size x size distance matrix, stored as the
+    //      options say
+    //    - Throws UncheckedIOException if the scratch file cannot be created
+   private DistanceMatrix createMatrix(int size, boolean single, File outOfCore) {
+      if(outOfCore == null){
+         return DistanceMatrix.create(size, single, this.options.isOffHeap());
+      }
+      try{
+         return DistanceMatrix.createMapped(size, single, outOfCore);
+      }
+      catch(IOException ex){
+         throw new UncheckedIOException(ex);
+      }
+   }
+   
+    // addSpecies
+    // Pre-conditions:
+    //    - species has a name that is not already a label in the tree, and a
+    //      sequence aligned with the sequences of the tree's species
+    //    - The tree is made of linked nodes (not built compact or loaded)
+    // Post-conditions:
+    //    - species has been added to the tree as a new leaf, and to
+    //      getAllSpecies, and every query sees the new tree
+    //    - Throws IllegalArgumentException if the name is taken or the
+    //      sequence has the wrong length, UnsupportedOperationException
+    //      for a compact or loaded tree
+    // Notes:
+    //    - Only the n distances from species to the species already in the
+    //      tree are computed.  Going down from the root, the new leaf is
+    //      joined to the first subtree whose average distance to species is
+    //      at least twice its distanceToChild (buildTree would join that
+    //      subtree's two halves before joining either to species), else it
+    //      goes down into the child it is closer to on average.
+    //    - The new tree is made of new nodes: the nodes above the new leaf
+    //      change labels (and possibly the order of their children), and
+    //      the others get new parents, while snapshots of the old tree must
+    //      not change.  Copying them is O(n), less than the distances cost
+    //    - The result may differ from building the tree again, since the new
+    //      species also changes the averages of later joins; see
+    //      matchesRebuild and rebuild
+    //    - The placement follows UPGMA, whatever engine built the tree
+   public void addSpecies(Species species) {
+      if(this.compactTree != null){
+         throw new UnsupportedOperationException("species cannot be added to a compact tree");
+      }
+      if(this.labelIndex.containsKey(species.getName())){
+         throw new IllegalArgumentException("label already in the tree: " + species.getName());
+      }
+      if(!this.descendents.isEmpty() && this.descendents.get(0).getLength() != species.getLength()){
+         throw new IllegalArgumentException("sequence of " + species.getName() + " is not aligned with the tree's");
+      }
+      //snapshots share the nodes and the label index, so the new tree is made from copies
+      copyTree();
+      PhyloTreeNode leaf = new LinkedTreeNode(null, species);
+      this.labelIndex.put(leaf.getLabel(), leaf);
+      this.descendents.add(species);
+      this.numSpecies++;
+      if(this.overallRoot == null){
+         this.overallRoot = leaf;
+         this.lcaIndex = new LcaIndex(leaf);
+         return;
+      }
+
+      //sum of the distances from species to the leaves below every node
+      final Species added = species;
+      final IdentityHashMap<PhyloTreeNode, Double> sums = new IdentityHashMap<PhyloTreeNode, Double>(4 * this.numSpecies);
+      new TreeWalker().walk(this.overallRoot, new TreeVisitor<RuntimeException>() {
+         public void postVisit(PhyloTreeNode node, int depth, double weightedDepth) {
+            if(node.isLeaf()){
+               sums.put(node, Species.distance(added, node.getSpecies()));
+            }
+            else{
+               sums.put(node, sums.get(node.getLeftChild()) + sums.get(node.getRightChild()));
             }
          }
-         forestMap.put(parentlabel, parentnode);  
+      });
+
+      //go down to the subtree the new leaf joins; ties go to the earlier joined label
+      PhyloTreeNode at = this.overallRoot;
+      double average = sums.get(at) / at.getNumLeafs();
+      while(!at.isLeaf() && average < 2 * at.getDistanceToChild()){
+         PhyloTreeNode left = at.getLeftChild();
+         PhyloTreeNode right = at.getRightChild();
+         double leftAverage = sums.get(left) / left.getNumLeafs();
+         double rightAverage = sums.get(right) / right.getNumLeafs();
+         boolean goRight = AgglomerativeEngine.closer(leaf, rightAverage, right, leftAverage, left);
+         at = goRight ? right : left;
+         average = goRight ? rightAverage : leftAverage;
+      }
+
+      //join it there, below the old parent's height, then replace the nodes above
+      PhyloTreeNode up = at.getParent();
+      double height = average / 2;
+      if(up != null && height > up.getDistanceToChild()){
+         height = up.getDistanceToChild();
+      }
+      PhyloTreeNode replaced = at;
+      PhyloTreeNode joined = joinNodes(at, leaf, height);
+      for(; up != null; up = up.getParent()){
+         PhyloTreeNode sibling = (up.getLeftChild() == replaced) ? up.getRightChild() : up.getLeftChild();
+         this.labelIndex.remove(up.getLabel());
+         replaced = up;
+         joined = joinNodes(joined, sibling, up.getDistanceToChild());
       }
-      //set overallRoot, the last and only node in the forest leftover, the last parentnode
-      this.overallRoot = parentnode;
+      this.overallRoot = joined;
+      this.lcaIndex = new LcaIndex(this.overallRoot);
       return;
    }
-   
+
+    // copyTree
+    // Pre-conditions:
+    //    - The tree is made of linked nodes
+    // Post-conditions:
+    //    - The tree's nodes and label index have been replaced by copies,
+    //      which nothing else shares, so they can be changed freely
+   private void copyTree() {
+      final HashMap<String, PhyloTreeNode> index = new HashMap<String, PhyloTreeNode>(2 * this.labelIndex.size() + 2);
+      final ArrayDeque<PhyloTreeNode> copies = new ArrayDeque<PhyloTreeNode>();
+      //post-order, so both children's copies are on the stack when their parent is copied
+      new TreeWalker().walk(this.overallRoot, new TreeVisitor<RuntimeException>() {
+         public void postVisit(PhyloTreeNode node, int depth, double weightedDepth) {
+            PhyloTreeNode copy;
+            if(node.isLeaf()){
+               copy = new LinkedTreeNode(null, node.getSpecies());
+            }
+            else{
+               PhyloTreeNode right = copies.pop();
+               PhyloTreeNode left = copies.pop();
+               copy = new LinkedTreeNode(node.getLabel(), null, left, right, node.getDistanceToChild());
+               left.setParent(copy);
+               right.setParent(copy);
+            }
+            index.put(copy.getLabel(), copy);
+            copies.push(copy);
+         }
+      });
+      this.overallRoot = copies.isEmpty() ? null : copies.pop();
+      this.labelIndex = index;
+   }
+
+    // joinNodes
+    // Pre-conditions:
+    //    - node1 and node2 are linked trees without parents (or whose old
+    //      parents are being replaced)
+    // Post-conditions:
+    //    - Returns a new node with node1 and node2 as children, ordered and
+    //      labelled as buildTree would, and indexed by its label
+   private PhyloTreeNode joinNodes(PhyloTreeNode node1, PhyloTreeNode node2, double distanceToChild) {
+      boolean firstLeft = AgglomerativeEngine.compareLabels(node1, node2) <= 0;
+      PhyloTreeNode left = firstLeft ? node1 : node2;
+      PhyloTreeNode right = firstLeft ? node2 : node1;
+      PhyloTreeNode parent = new LinkedTreeNode(left.getLabel() + "+" + right.getLabel(), null, left, right, distanceToChild);
+      left.setParent(parent);
+      right.setParent(parent);
+      this.labelIndex.put(parent.getLabel(), parent);
+      return parent;
+   }
+
+    // matchesRebuild
+    // Pre-conditions:
+    //    - The tree's species still have their sequences (it was not loaded)
+    // Post-conditions:
+    //    - Returns true if building the tree again from getAllSpecies, with
+    //      the same options, gives a tree with the same nodes, i.e. the same
+    //      labels (edge weights are not compared; the averages of a build
+    //      always move a little when a species is added)
+    // Notes:
+    //    - A consistency check for addSpecies; it costs a full build
+   public boolean matchesRebuild() {
+      Species[] species = this.descendents.toArray(new Species[this.descendents.size()]);
+      PhyloTree rebuilt = new PhyloTree(species, this.printingDepth, this.options);
+      return allLabels(rebuilt.getOverallRoot()).equals(allLabels(this.getOverallRoot()));
+   }
+
+    // rebuild
+    // Pre-conditions:
+    //    - The tree's species still have their sequences (it was not loaded)
+    // Post-conditions:
+    //    - The tree has been built again from getAllSpecies, e.g. after
+    //      adding species with addSpecies
+   public void rebuild() {
+      buildTree(this.descendents.toArray(new Species[this.descendents.size()]), new BuildMetrics(this.options.getListener()));
+      return;
+   }
+
    //General descriptions for our reference:    
       //Depth of a node n = length of path from root to n
          //-->number of edges from node to tree's root node
@@ -440,14 +813,12 @@ public class PhyloTree {
       if(node == null){
          return -1;
       }
-      else{
-         if(node.getParent() == null){
-            return 0;
-         }
-         else{
-            return 1 + nodeDepth(node.getParent());
-         }
+      //count the edges up to the root
+      int depth = 0;
+      for(PhyloTreeNode up = node.getParent(); up != null; up = up.getParent()){
+         depth++;
       }
+      return depth;
    }
 
     // nodeHeight
@@ -460,14 +831,8 @@ public class PhyloTree {
       if (node == null) {
          return -1;
       } 
-      else {
-         if (node.isLeaf()) {
-            return 0;
-         } 
-         else {
-            return 1 + Math.max(nodeHeight(node.getLeftChild()), nodeHeight(node.getRightChild()));
-         }
-      }
+      //cached bottom-up when the node was merged, like getNumLeafs
+      return node.getHeight();
    }
    
    //helper function added for benefit of toString()
@@ -478,17 +843,20 @@ public class PhyloTree {
       if(node == null){
          return Double.NEGATIVE_INFINITY;
       }
-      if(node.getParent() != null){
-         return node.getParent().getDistanceToChild() + weightedNodeDepth(node.getParent());
+      //add the edge weights from the root down, in the same order as
+      //weightedDepth(child) = parent.distanceToChild + weightedDepth(parent)
+      PhyloTreeNode[] path = new PhyloTreeNode[nodeDepth(node)];
+      int i = path.length;
+      for(PhyloTreeNode up = node.getParent(); up != null; up = up.getParent()){
+         path[--i] = up;
       }
-      else{
-         return 0.0;
+      double depth = 0.0;
+      for(PhyloTreeNode ancestor : path){
+         depth = ancestor.getDistanceToChild() + depth;
       }
+      return depth;
    }
 
-
-
-
     // weightedNodeHeight 
     // Pre-conditions:
     //    - node is null or the root of tree (possibly subtree)
@@ -499,24 +867,11 @@ public class PhyloTree {
     //     to a leaf; this might NOT be the same as the sum of the weights
     //     along the longest path from the node to a leaf)
    public static double weightedNodeHeight(PhyloTreeNode node) {
-      if(node != null){
-         if(!node.isLeaf()){
-            double rightH = node.getDistanceToChild() + weightedNodeHeight(node.getRightChild());
-            double leftH = node.getDistanceToChild() + weightedNodeHeight(node.getLeftChild());
-            if(rightH >= leftH){
-               return rightH;
-            }
-            else{
-               return leftH;
-            }
-         }
-         else{
-            return 0.0;
-         }
-      }
-      else{
+      if(node == null){
          return Double.NEGATIVE_INFINITY;
       }
+      //cached bottom-up when the node was merged, like getNumLeafs
+      return node.getWeightedHeight();
    }
 
     // loadSpeciesFile
@@ -532,125 +887,29 @@ public class PhyloTree {
     //    - Because the bar character ("|") denotes OR, you need to escape it
     //      if you want to use it to split a string, i.e. you can use "\\|" 
    public static Species[] loadSpeciesFile(String filename) {
-      String inputline = "";
-      int inputlineCount = 0;
-      String[] nameArray = new String[7];
-      String spname = "";
-      String strSeq = "";
-      ArrayList<Species> tempArray = new ArrayList<Species>();
-      
+      Species[] speciesObj = new Species[0];
       try{
-         Scanner input = new Scanner(new File(filename));
-         inputline = input.next();
-         inputlineCount++;
-         while(input.hasNext()){          
-            nameArray = inputline.split("\\|");
-            spname = nameArray[nameArray.length-1];
-            inputline = input.next();
-            inputlineCount++;
-            while(!inputline.contains(">") && input.hasNext()){
-                  //Sequence detected
-               strSeq = strSeq + inputline;
-               inputline = input.next();
-               inputlineCount++;
-            }
-            if((!input.hasNext())){
-               strSeq = strSeq + inputline;
-            }
-               //store sequence
-            String[] seqA = new String[strSeq.length()];
-            seqA = strSeq.split("");
-            strSeq = "";
-               //create Species object with name and sequence
-            tempArray.add(new Species(spname,seqA));
-         }
-         
-         //System.out.println("inputlineCount: " +inputlineCount);
+         speciesObj = new FastaReader().read(filename);
       }
-      catch(FileNotFoundException ex){
+      catch(IOException ex){
          System.out.println("File not found: " + filename);
          System.exit(1);
       }
-      
-      Species[] speciesObj = tempArray.toArray(new Species[tempArray.size()]);
-      descendents = tempArray;      
-      String[] strA = new String[speciesObj[5].getSequence().length];
-      strA = speciesObj[5].getSequence();
       return speciesObj;
    }
-    // getAllDescendantSpecies
-    // Pre-conditions:
-    //    - node points to a node in a phylogenetic tree structure
-    //    - descendants is a non-null reference variable to an empty arraylist object
-    // Post-conditions:
-    //    - descendants is populated with all species in the subtree rooted at node
-    //      in in-/pre-/post-order (they are equivalent here)
-   private static void getAllDescendantSpecies(PhyloTreeNode node, java.util.ArrayList<Species> descendants) {   
-      for(int i=0; i<descendents.size(); i++){
-         //find node associated with label in Species array
-         findTreeNodeByLabel(overallRoot, descendents.get(i).getName());
-         //test if node is a leaf
-         if(!node.isLeaf()){
-            //if node is not a leaf, remove
-            descendents.remove(descendents.get(i));
-         }
-      }
-   }
-
-    // findTreeNodeByLabel
-    // Pre-conditions:
-    //    - node points to a node in a phylogenetic tree structure
-    //    - label is the label of a tree node that you intend to locate
-    // Post-conditions:
-    //    - If no node with the label exists in the subtree, return null
-    //    - Else: return the PhyloTreeNode with the specified label 
-    // Notes:
-    //    - Assumes labels are unique in the tree
-   private static PhyloTreeNode findTreeNodeByLabel(PhyloTreeNode node, String label) {
-      if(node.getLabel().equals(label)){
-         return node;
-      }
-      if(node.isLeaf()){
-         return null;
-      }
-      else{
-         PhyloTreeNode right = findTreeNodeByLabel(node.getRightChild(), label);
-         PhyloTreeNode left =findTreeNodeByLabel(node.getLeftChild(), label);
-         if(left != null){
-            return left;
-         }
-         else{
-            return right;
-         }
-      }
-   }
-
-    // findLeastCommonAncestor
+    // allLabels
     // Pre-conditions:
-    //    - node1 and node2 point to nodes in the phylogenetic tree
+    //    - node is null or points to a node in a phylogenetic tree structure
     // Post-conditions:
-    //    - If node1 or node2 are null, return null
-    //    - Else: returns the PhyloTreeNode of their common ancestor 
-    //      with the largest depth
-   private static PhyloTreeNode findLeastCommonAncestor(PhyloTreeNode node1, PhyloTreeNode node2) {
-      if(node1 == null || node2== null){ //if one of the given nodes are null
-         return null;
-      }
-      else{
-         //compare depths of node1 and node2
-         if(nodeDepth(node1) > nodeDepth(node2)){
-            return findLeastCommonAncestor(node1.getParent(), node2);
-         }
-         else if(nodeDepth(node1) < nodeDepth(node2)){
-            return findLeastCommonAncestor(node2.getParent(), node1);
+    //    - Returns the labels of every node in the subtree rooted at node
+   private static HashSet<String> allLabels(PhyloTreeNode node) {
+      final HashSet<String> labels = new HashSet<String>();
+      new TreeWalker().walk(node, new TreeVisitor<RuntimeException>() {
+         public boolean preVisit(PhyloTreeNode visited, int depth, double weightedDepth) {
+            labels.add(visited.getLabel());
+            return true;
          }
-         else if(node1 == node2){
-            return node1;
-         }
-         else{
-            return findLeastCommonAncestor(node1.getParent(), node2.getParent());
-         
-         }
-      }
+      });
+      return labels;
    }
 }
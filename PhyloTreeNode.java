@@ -1,142 +1,98 @@
-/* 
+/*
  * PhyloTreeNode.java
  *
- * Defines a phylogenetic tree node type, which stores the information associated
- * with a node in the tree
+ * Defines a phylogenetic tree node type: the information associated with a
+ * node in the tree, as seen by PhyloTree and everything that reads a tree.
+ *
+ * The type holds no state itself.  LinkedTreeNode stores each node as an
+ * object with references to its neighbours, and CompactTree hands out
+ * read-only views of nodes stored in arrays; a view is only its node's id,
+ * so creating views costs little.
  *
- * This class has been implemented for you.  You may not modify it.
- * 
  * Brian Hutchinson
  * Feb 2016
  *
  */
 
-public class PhyloTreeNode {
-    private PhyloTreeNode parent;        // Reference variable for parent node (null for root)
-    private PhyloTreeNode leftChild;     // Reference variable for left child (null if empty)
-    private PhyloTreeNode rightChild;    // Reference variable for right child (null if empty)    
-    private String label;                // A unique string label for the species or non-terminal
-    private Species species;             // Reference variable for a species object (null for non-terminals)
-    private double distanceToChild;      // Edge weight to left child (which is also the edge weight to the right child) (Use 0 for terminals)
-    private int numLeafs;                // Caches the # leaves in the tree -- can't change after Constructor
-
-    // CONSTRUCTORS
+public abstract class PhyloTreeNode {
 
-    // PhyloTree - constructor for a leaf
-    // Pre-conditions:
-    //      - parent node points to a PhyloTree (or null)
-    //      - species points to a Species object
-    // Post-conditions:
-    //      - A new leaf PhyloTree node is created 
-    public PhyloTreeNode(PhyloTreeNode parent, Species species) {
-        this.parent = parent;
-        this.species = species;
-        this.label = species.getName();    
-        this.numLeafs = 1;
-        return;
-    }
-
-    // PhyloTree - constructor for a non-terminal
-    // Pre-conditions:
-    //        - label is leftlabel+rightlabel, where leftlabel is the label
-    //        of the left child and rightlabel is the label of the right child
-    //        - parent is a PhyloTreeNode (or null) to be the node's parent
-    //        - leftlabel and rightChild are PhyloTreeNodes for the left and right children
-    //        - distanceToChild is the edge weight from this new node to each of its children
-    //          and will be set to X/2, where X is the distance between the two children at the
-    //          point that they are merged during buildTree
-    // Post-conditions:
-    //      - A new non-terminal PhyloTree node is created 
-    //        - species will be set to null, since non-terminals are not associated with species
-    //        - this.numLeafs will be computed given the children
-    public PhyloTreeNode(String label, PhyloTreeNode parent, PhyloTreeNode leftChild, PhyloTreeNode rightChild,double distanceToChild) {
-        this.label = label;
-        this.parent = parent;
-        this.leftChild = leftChild;
-        this.rightChild = rightChild;
-        this.distanceToChild = distanceToChild;
-        this.numLeafs = 0;
-        if( leftChild != null ) {
-            this.numLeafs += leftChild.getNumLeafs();
-        }
-        if( rightChild != null ) {
-            this.numLeafs += rightChild.getNumLeafs();
-        }
-    }
-    
     // ACCESSORS
 
     // getParent
     // Pre-conditions:
     //        - None
     // Post-conditions:
-    //        - Returns the parent
-    public PhyloTreeNode getParent() {
-        return this.parent;
-    }
+    //        - Returns the parent (null for the root)
+    public abstract PhyloTreeNode getParent();
 
     // getLeftChild
     // Pre-conditions:
     //        - None
     // Post-conditions:
-    //        - Returns the leftChild
-    public PhyloTreeNode getLeftChild() {
-        return this.leftChild;
-    }
+    //        - Returns the leftChild (null if empty)
+    public abstract PhyloTreeNode getLeftChild();
 
     // getRightChild
     // Pre-conditions:
     //        - None
     // Post-conditions:
-    //        - Returns the rightChild
-    public PhyloTreeNode getRightChild() {
-        return this.rightChild;
-    }
+    //        - Returns the rightChild (null if empty)
+    public abstract PhyloTreeNode getRightChild();
 
     // getLabel
     // Pre-conditions:
     //        - None
     // Post-conditions:
-    //        - Returns the label
-    public String getLabel() {
-        return this.label;
-    }
+    //        - Returns the label, a unique string for the species or
+    //          non-terminal
+    public abstract String getLabel();
 
     // getSpecies
     // Pre-conditions:
     //        - None
     // Post-conditions:
-    //        - Returns the species
-    public Species getSpecies() {
-        return this.species;
-    }
+    //        - Returns the species (null for non-terminals)
+    public abstract Species getSpecies();
 
     // getDistanceToChild
     // Pre-conditions:
     //        - None
     // Post-conditions:
-    //        - Returns the distanceToChild
-    public double getDistanceToChild() {
-        return this.distanceToChild;
-    }
+    //        - Returns the edge weight to the left child (which is also the
+    //          edge weight to the right child); 0 for terminals
+    public abstract double getDistanceToChild();
 
     // getNumLeafs
     // Pre-conditions:
     //        - None
     // Post-conditions:
     //        - Returns the number of leaves in the subtree rooted at this
-    public int getNumLeafs() {
-        return this.numLeafs;
-    }
+    public abstract int getNumLeafs();
 
-    // isLeaf 
+    // getHeight
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the number of edges on the longest path from this
+    //          to a leaf
+    public abstract int getHeight();
+
+    // getWeightedHeight
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the sum of the edge weights along the highest weight
+    //          path from this to a leaf
+    public abstract double getWeightedHeight();
+
+    // isLeaf
     // Pre-conditions:
     //        - None
     // Post-conditions:
     //        - If the node is a leaf: return true
     //        - Else: return false
     public boolean isLeaf() {
-        if( this.leftChild == null && this.rightChild == null ) {
+        if( this.getLeftChild() == null && this.getRightChild() == null ) {
             return true;
         } else {
             return false;
@@ -153,7 +109,7 @@ public class PhyloTreeNode {
     //          where $distance is the distanceToChild
     public String toString() {
         if( this.isLeaf() ) {
-            return this.getLabel();    
+            return this.getLabel();
         } else {
             return String.format("[NONTERM %.2f]",this.getDistanceToChild());
         }
@@ -165,9 +121,7 @@ public class PhyloTreeNode {
     // Pre-conditions:
     //        - parent is a PhyloTreeNode or null
     // Post-conditions:
-    //        - Sets this.parent to parent
-    public void setParent(PhyloTreeNode parent) {
-        this.parent = parent;
-        return;
-    }
+    //        - Sets the node's parent to parent
+    //        - Throws UnsupportedOperationException if the node is read-only
+    public abstract void setParent(PhyloTreeNode parent);
 }
@@ -0,0 +1,434 @@
+/*
+ * QueryServer.java
+ *
+ * Serves one tree to other processes on the same machine, so they can
+ * share it instead of each building or loading their own copy.
+ *
+ * Usage: java QueryServer file [port] [--compact]
+ *
+ * file is a FASTA file to build the tree from, or a tree file written by
+ * PhyloTree.save (anything not ending in .fasta); --compact builds it as a
+ * CompactTree.  The server listens on the loopback address only, on port
+ * (default 7070; 0 picks a free one), and prints the port it got.
+ *
+ * The protocol is plain lines of UTF-8 text.  Each request is a command
+ * and its labels, separated by whitespace; each gets one line back, in
+ * the order the requests were sent, starting "OK " and the answer, or
+ * "ERR " and what was wrong:
+ *
+ *   LCA label1 label2     the label of their least common ancestor
+ *   DIST label1 label2    their evolutionary distance
+ *   DESC label            the names of the species below the node, in order
+ *   NEWICK label          the subtree at the node, in toTreeString format
+ *   QUIT                  closes the connection
+ *
+ * e.g. "printf 'DIST a b\nQUIT\n' | nc 127.0.0.1 7070".
+ *
+ * Each connection is served by its own thread, a virtual thread on JDKs
+ * that have them.  LCA and DIST requests are not answered on that thread:
+ * they are queued for a single batching thread, which takes every request
+ * queued (up to MAX_BATCH) and answers them together with the tree's
+ * batch queries (see BatchQuery), then takes whatever was queued while it
+ * worked.  Under load the batches grow by themselves; an idle server
+ * answers a lone request at once, since nothing waits for a batch to fill.
+ * A connection also queues every request the client has already sent
+ * (pipelining) before it waits for the first answer.
+ *
+ * Queries go to the TreeSnapshot the LiveTree is serving when their batch
+ * (or, for DESC and NEWICK, the request) is answered, so the tree can be
+ * rebuilt and swapped in while the server runs.
+ *
+ */
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class QueryServer implements Closeable {
+    public static final int DEFAULT_PORT = 7070;
+    private static final int MAX_BATCH = 4096;          // Queries answered in one batch, and read ahead per connection
+    private static final long MAX_BACKOFF_MILLIS = 1000;  // Longest pause after a failed accept
+
+    private LiveTree tree;                              // The tree being served
+    private ServerSocket server;
+    private ExecutorService connections;                // Runs one task per connection
+    private BlockingQueue<Request> queue = new LinkedBlockingQueue<Request>();
+    private Set<Socket> open = ConcurrentHashMap.newKeySet();
+    private Thread acceptor;
+    private Thread batcher;
+    private volatile boolean closed;
+
+    // Batch buffers, used by the batching thread only
+    private String[] labels1 = new String[MAX_BATCH];
+    private String[] labels2 = new String[MAX_BATCH];
+    private int[] ids1 = new int[MAX_BATCH];
+    private int[] ids2 = new int[MAX_BATCH];
+    private int[] ancestors = new int[MAX_BATCH];
+    private double[] distances = new double[MAX_BATCH];
+
+    // CONSTRUCTOR
+
+    // QueryServer
+    // Pre-conditions:
+    //        - tree is non-null
+    //        - port is a free port, or 0 for any free one
+    // Post-conditions:
+    //        - A server for tree bound to port on the loopback address has
+    //          been created; it answers nothing until started
+    //        - Throws IOException if the port cannot be bound
+    public QueryServer(LiveTree tree, int port) throws IOException {
+        this.tree = tree;
+        this.server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+    }
+
+    // main
+    // Pre-conditions:
+    //        - args holds the tree's file, and optionally the port and
+    //          --compact
+    // Post-conditions:
+    //        - Serves the tree until the process is killed
+    public static void main(String[] args) throws IOException {
+        if( args.length < 1 ) {
+            System.err.println("Usage: java QueryServer file [port] [--compact]");
+            System.exit(2);
+        }
+        int port = DEFAULT_PORT;
+        BuildOptions options = new BuildOptions();
+        for( int i=1; i<args.length; i++ ) {
+            if( args[i].equals("--compact") ) {
+                options.setCompact(true);
+            } else {
+                port = Integer.parseInt(args[i]);
+            }
+        }
+        PhyloTree tree = args[0].endsWith(".fasta") ? new PhyloTree(args[0], 1, options)
+                                                    : PhyloTree.load(args[0], 1);
+        QueryServer server = new QueryServer(new LiveTree(tree.snapshot()), port);
+        server.start();
+        System.out.println("Serving " + tree.countAllSpecies() + " species on "
+                           + server.server.getInetAddress().getHostAddress() + ":" + server.getPort());
+    }
+
+    // ACCESSORS
+
+    // getPort
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the port the server listens on
+    public int getPort() {
+        return this.server.getLocalPort();
+    }
+
+    // MODIFIERS
+
+    // start
+    // Pre-conditions:
+    //        - The server has not been started or closed
+    // Post-conditions:
+    //        - The server is accepting connections and answering requests
+    public void start() {
+        ExecutorService virtual = BatchBuilder.newVirtualThreadExecutor();
+        this.connections = (virtual != null) ? virtual : Executors.newCachedThreadPool();
+        this.batcher = new Thread(this::batch, "QueryServer batcher");
+        this.acceptor = new Thread(this::accept, "QueryServer acceptor");
+        this.batcher.start();
+        this.acceptor.start();
+        return;
+    }
+
+    // close
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - The server has stopped listening, every connection has been
+    //          closed, and queries still queued have been answered with ERR
+    public void close() throws IOException {
+        this.closed = true;
+        this.server.close();
+        for( Socket socket : this.open ) {
+            socket.close();
+        }
+        if( this.connections != null ) {
+            this.connections.shutdown();
+            this.batcher.interrupt();
+        }
+        return;
+    }
+
+    // accept
+    // Pre-conditions:
+    //        - Runs on the acceptor thread
+    // Post-conditions:
+    //        - Every connection made has been handed to its own thread, until
+    //          the server is closed
+    // Notes:
+    //        - Other accept failures (e.g. running out of file descriptors)
+    //          are reported, and accepting is retried after a pause that
+    //          doubles with each failure in a row, up to MAX_BACKOFF_MILLIS
+    private void accept() {
+        long backoff = 0;
+        while( !this.closed ) {
+            final Socket socket;
+            try {
+                socket = this.server.accept();
+            } catch( IOException ex ) {
+                if( this.closed || this.server.isClosed() ) {
+                    break;
+                }
+                backoff = Math.min(MAX_BACKOFF_MILLIS, Math.max(10, 2 * backoff));
+                System.err.println("QueryServer: accept failed, retrying in " + backoff + " ms: " + ex);
+                try {
+                    Thread.sleep(backoff);
+                } catch( InterruptedException interrupted ) {
+                    break;
+                }
+                continue;
+            }
+            backoff = 0;
+            this.open.add(socket);
+            try {
+                this.connections.execute(() -> serve(socket));
+            } catch( RejectedExecutionException ex ) {
+                // The server is being closed; serve will never close this one
+                this.open.remove(socket);
+                try {
+                    socket.close();
+                } catch( IOException closing ) {
+                    // Nothing more to do
+                }
+            }
+        }
+        return;
+    }
+
+    // serve
+    // Pre-conditions:
+    //        - socket is a connection from a client
+    // Post-conditions:
+    //        - Every request on the connection has been answered, until the
+    //          client sends QUIT or hangs up, and the connection is closed
+    private void serve(Socket socket) {
+        try {
+            socket.setTcpNoDelay(true);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+            List<Request> pending = new ArrayList<Request>();
+            boolean quit = false;
+            String line;
+            while( !quit && (line = in.readLine()) != null ) {
+                // Queue everything already sent, then answer it in order
+                pending.add(submit(line.trim().split("\\s+")));
+                if( pending.size() < MAX_BATCH && in.ready() ) {
+                    continue;
+                }
+                for( Request request : pending ) {
+                    if( request.isQuit() ) {
+                        quit = true;
+                        break;
+                    }
+                    respond(request, out);
+                    out.write('\n');
+                }
+                pending.clear();
+                out.flush();
+            }
+        } catch( IOException ex ) {
+            // The client hung up or the server was closed
+        } finally {
+            this.open.remove(socket);
+            try {
+                socket.close();
+            } catch( IOException ex ) {
+                // Nothing more to do
+            }
+        }
+        return;
+    }
+
+    // submit
+    // Pre-conditions:
+    //        - words are the words of a request line
+    // Post-conditions:
+    //        - Returns the request, queued for the batching thread if it is
+    //          a well-formed LCA or DIST
+    private Request submit(String[] words) {
+        Request request = new Request(words);
+        if( request.isBatched() ) {
+            request.answer = new CompletableFuture<String>();
+            this.queue.add(request);
+        }
+        return request;
+    }
+
+    // respond
+    // Pre-conditions:
+    //        - request was returned by submit
+    // Post-conditions:
+    //        - The answer to request has been written to out, without the
+    //          line end
+    private void respond(Request request, Writer out) throws IOException {
+        if( request.answer != null ) {
+            out.write(request.answer.join());
+            return;
+        }
+        String command = request.words[0].toUpperCase();
+        boolean known = command.equals("LCA") || command.equals("DIST") || command.equals("DESC")
+                        || command.equals("NEWICK");
+        if( !known ) {
+            out.write("ERR unknown command " + request.words[0]);
+            return;
+        }
+        int labels = (command.equals("LCA") || command.equals("DIST")) ? 2 : 1;
+        if( request.words.length != labels + 1 ) {
+            out.write("ERR usage: " + command + ((labels == 2) ? " label1 label2" : " label"));
+            return;
+        }
+        PhyloTreeNode node = this.tree.get().findTreeNodeByLabel(request.words[1]);
+        if( node == null ) {
+            out.write("ERR no node labelled " + request.words[1]);
+            return;
+        }
+        out.write("OK ");
+        if( command.equals("NEWICK") ) {
+            PhyloTree.writeTreeString(node, out);
+            out.write(';');
+        } else {
+            writeDescendants(node, out);
+        }
+        return;
+    }
+
+    // writeDescendants
+    // Pre-conditions:
+    //        - node is a node of the tree
+    // Post-conditions:
+    //        - The names of the species below node, left to right, have been
+    //          written to out, separated by spaces
+    private static void writeDescendants(PhyloTreeNode node, final Writer out) throws IOException {
+        final boolean[] first = {true};
+        new TreeWalker().walk(node, new TreeVisitor<IOException>() {
+            public void postVisit(PhyloTreeNode visited, int depth, double weightedDepth) throws IOException {
+                if( visited.isLeaf() ) {
+                    if( !first[0] ) {
+                        out.write(' ');
+                    }
+                    out.write(visited.getLabel());
+                    first[0] = false;
+                }
+            }
+        });
+        return;
+    }
+
+    // batch
+    // Pre-conditions:
+    //        - Runs on the batching thread
+    // Post-conditions:
+    //        - Every queued query has been answered, in batches, until the
+    //          server is closed; those still queued then are answered ERR
+    private void batch() {
+        List<Request> batch = new ArrayList<Request>(MAX_BATCH);
+        try {
+            while( !this.closed ) {
+                Request first = this.queue.poll(100, TimeUnit.MILLISECONDS);
+                if( first == null ) {
+                    continue;
+                }
+                batch.add(first);
+                this.queue.drainTo(batch, MAX_BATCH - 1);
+                try {
+                    answer(batch);
+                } catch( RuntimeException ex ) {
+                    for( Request request : batch ) {
+                        request.answer.complete("ERR " + ex);
+                    }
+                }
+                batch.clear();
+            }
+        } catch( InterruptedException ex ) {
+            // The server was closed
+        }
+        for( Request request : batch ) {
+            request.answer.complete("ERR server closed");
+        }
+        while( !this.queue.isEmpty() ) {
+            this.queue.remove().answer.complete("ERR server closed");
+        }
+        return;
+    }
+
+    // answer
+    // Pre-conditions:
+    //        - batch holds at most MAX_BATCH LCA and DIST requests
+    // Post-conditions:
+    //        - Every request in batch has been answered from one snapshot
+    // Notes:
+    //        - Both answers are computed for every pair; each is a few array
+    //          reads, which costs less than sorting the batch by command
+    private void answer(List<Request> batch) {
+        int count = batch.size();
+        for( int i=0; i<count; i++ ) {
+            this.labels1[i] = batch.get(i).words[1];
+            this.labels2[i] = batch.get(i).words[2];
+        }
+        TreeSnapshot snapshot = this.tree.get();
+        snapshot.resolveLabels(this.labels1, this.ids1, count, 1);
+        snapshot.resolveLabels(this.labels2, this.ids2, count, 1);
+        snapshot.findLeastCommonAncestors(this.ids1, this.ids2, this.ancestors, count, 1);
+        snapshot.findEvolutionaryDistances(this.ids1, this.ids2, this.distances, count, 1);
+        for( int i=0; i<count; i++ ) {
+            Request request = batch.get(i);
+            String answer;
+            if( this.ids1[i] < 0 || this.ids2[i] < 0 ) {
+                answer = "ERR no node labelled " + ((this.ids1[i] < 0) ? this.labels1[i] : this.labels2[i]);
+            } else if( request.words[0].equalsIgnoreCase("LCA") ) {
+                answer = "OK " + snapshot.getNodeById(this.ancestors[i]).getLabel();
+            } else {
+                answer = "OK " + this.distances[i];
+            }
+            request.answer.complete(answer);
+            this.labels1[i] = null;
+            this.labels2[i] = null;
+        }
+        return;
+    }
+
+    // A request line, and its answer once the batching thread has it
+    private static class Request {
+        String[] words;
+        CompletableFuture<String> answer;   // null unless batched
+
+        Request(String[] words) {
+            this.words = words;
+        }
+
+        boolean isQuit() {
+            return this.words[0].equalsIgnoreCase("QUIT");
+        }
+
+        boolean isBatched() {
+            return this.words.length == 3
+                && (this.words[0].equalsIgnoreCase("LCA") || this.words[0].equalsIgnoreCase("DIST"));
+        }
+    }
+}
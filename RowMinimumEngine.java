@@ -0,0 +1,265 @@
+/*
+ * RowMinimumEngine.java
+ *
+ * A ClusteringEngine that keeps the nearest rows of every row of the
+ * distance matrix in memory, so that each join only reads and writes the
+ * rows of the two trees being joined (and the rows that run out of cached
+ * neighbors).  This suits a matrix kept out of core (see
+ * DistanceMatrix.createMapped), where every row read is disk I/O.
+ *
+ * Row i only looks at the rows after it, and caches up to CANDIDATES of
+ * them: the closest rows j > i, closest first.  The closest pair overall
+ * is then the closest of the n cached minima, found in memory.  After
+ * joining rows a and b (a < b) into row a:
+ *
+ *   - row a is scanned again, since all of its distances changed
+ *   - a and b are dropped from the other rows' candidates; the next
+ *     candidate, if any, is still right, since no other distance changed
+ *   - a row before a offers itself its new distance to a, which is kept
+ *     if it beats one of the cached candidates
+ *   - a row left without candidates is not scanned straight away: the
+ *     linkage never brings the joined tree closer than both of its parts
+ *     were, so its old minimum is a lower bound, and the row
+ *     is only scanned once that bound is no larger than the closest pair
+ *
+ * Caching several candidates matters when there are many ties (e.g. many
+ * identical sequences): a row whose nearest tree was joined usually has
+ * another one at the same distance.
+ *
+ * Candidates use the strict (distance, joined label) order of
+ * AgglomerativeEngine, so the joins are made in exactly the same order as
+ * GreedyEngine makes them, and the tree is the same.  The candidates are
+ * first found in one pass over the matrix, tile by tile, which reads an
+ * out-of-core matrix's file in order.  The worst case is O(n^3) time, but
+ * typically only a few rows are scanned per join.
+ *
+ */
+
+public class RowMinimumEngine extends AgglomerativeEngine {
+    private static final int TILE = DistanceFill.TILE;   // Rows and columns per tile of the first pass
+    static final int CANDIDATES = 8;                     // Nearest rows cached per row
+
+    // CONSTRUCTORS
+
+    // RowMinimumEngine
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - An engine that builds UPGMA trees has been created
+    public RowMinimumEngine() {
+        this(Linkage.UPGMA);
+    }
+
+    // RowMinimumEngine
+    // Pre-conditions:
+    //        - linkage is non-null
+    // Post-conditions:
+    //        - An engine that updates distances with linkage has been created
+    public RowMinimumEngine(Linkage linkage) {
+        super(linkage);
+    }
+
+    // cluster
+    // Pre-conditions:
+    //        - See ClusteringEngine
+    // Post-conditions:
+    //        - Returns the root of the tree built from all leaves
+    //        - Rows of distances belonging to joined trees are reused for
+    //          the new trees
+    public PhyloTreeNode cluster(PhyloTreeNode[] leaves, DistanceMatrix distances, BuildMetrics metrics) {
+        int n = leaves.length;
+        if( n == 0 ) {
+            return null;
+        }
+        Rows rows = new Rows(leaves.clone(), distances);
+        PhyloTreeNode[] forest = rows.forest;
+        int sites = sites(leaves);
+
+        for( int remaining = n; remaining > 1; remaining-- ) {
+            int best = -1;
+            for( int i=0; i<n; i++ ) {
+                if( forest[i] == null || rows.count[i] == 0 ) {
+                    continue;
+                }
+                if( best == -1 || rows.closerRow(i, best) ) {
+                    best = i;
+                }
+            }
+            for( int i=0; i<n; i++ ) {
+                if( forest[i] == null || !rows.stale[i] || (best != -1 && rows.bound[i] > rows.minimum(best)) ) {
+                    continue;
+                }
+                rows.scan(i);
+                if( rows.count[i] > 0 && (best == -1 || rows.closerRow(i, best)) ) {
+                    best = i;
+                }
+            }
+            int b = rows.nearest(best);
+            join(best, b, forest, distances, sites, metrics);
+            rows.joined(best, b);
+        }
+        return forest[0];
+    }
+
+    // The forest and the cached candidates of each row: row i's candidates
+    // are candidate[i*CANDIDATES ..], count[i] of them, closest first, and
+    // are always the closest rows after i (no row missing in between)
+    private static class Rows {
+        private PhyloTreeNode[] forest;   // forest[i] is the tree in row i (null once joined)
+        private DistanceMatrix distances;
+        private int[] candidate;          // Cached rows, CANDIDATES per row
+        private double[] distance;        // Their distances to the row
+        private int[] count;              // Number of candidates cached per row
+        private boolean[] stale;          // stale[i] if row i ran out of candidates
+        private double[] bound;           // A lower bound on a stale row's minimum
+
+        // Rows
+        // Pre-conditions:
+        //        - forest holds one tree per row of distances
+        // Post-conditions:
+        //        - Every row's candidates have been found, in one pass over
+        //          the matrix, tile by tile
+        Rows(PhyloTreeNode[] forest, DistanceMatrix distances) {
+            int n = forest.length;
+            this.forest = forest;
+            this.distances = distances;
+            this.candidate = new int[n * CANDIDATES];
+            this.distance = new double[n * CANDIDATES];
+            this.count = new int[n];
+            this.stale = new boolean[n];
+            this.bound = new double[n];
+            for( int tileRow=0; tileRow<n; tileRow+=TILE ) {
+                for( int tileCol=tileRow; tileCol<n; tileCol+=TILE ) {
+                    int rowEnd = Math.min(n, tileRow + TILE);
+                    int colEnd = Math.min(n, tileCol + TILE);
+                    for( int i=tileRow; i<rowEnd; i++ ) {
+                        for( int j=Math.max(i + 1, tileCol); j<colEnd; j++ ) {
+                            offer(i, j, distances.get(i, j), true);
+                        }
+                    }
+                }
+            }
+        }
+
+        // nearest
+        // Pre-conditions:
+        //        - Row i has candidates
+        // Post-conditions:
+        //        - Returns the closest row after row i
+        int nearest(int i) {
+            return this.candidate[i * CANDIDATES];
+        }
+
+        // minimum
+        // Pre-conditions:
+        //        - Row i has candidates
+        // Post-conditions:
+        //        - Returns the distance to the closest row after row i
+        double minimum(int i) {
+            return this.distance[i * CANDIDATES];
+        }
+
+        // closerRow
+        // Pre-conditions:
+        //        - Rows i and j both have candidates
+        // Post-conditions:
+        //        - Returns true if row i's minimum comes strictly before row j's
+        //          minimum in the (distance, joined label) order
+        boolean closerRow(int i, int j) {
+            return closerPair(minimum(i), this.forest[i], this.forest[nearest(i)],
+                              minimum(j), this.forest[j], this.forest[nearest(j)]);
+        }
+
+        // joined
+        // Pre-conditions:
+        //        - Rows a and b, a < b, have just been joined into row a
+        // Post-conditions:
+        //        - Every row's candidates are right again, or the row is stale
+        void joined(int a, int b) {
+            for( int i=0; i<b; i++ ) {
+                if( i == a || this.forest[i] == null || this.stale[i] ) {
+                    continue;
+                }
+                double head = minimum(i);
+                remove(i, a);
+                remove(i, b);
+                if( this.count[i] == 0 ) {
+                    this.stale[i] = true;
+                    this.bound[i] = head;
+                } else if( i < a ) {
+                    offer(i, a, this.distances.get(i, a), false);
+                }
+            }
+            scan(a);
+            return;
+        }
+
+        // scan
+        // Pre-conditions:
+        //        - forest[row] is a tree still in the forest
+        // Post-conditions:
+        //        - The row's candidates have been found from the rest of the row
+        void scan(int row) {
+            this.count[row] = 0;
+            this.stale[row] = false;
+            for( int i=row+1; i<this.forest.length; i++ ) {
+                if( this.forest[i] != null ) {
+                    offer(row, i, this.distances.get(row, i), true);
+                }
+            }
+            return;
+        }
+
+        // offer
+        // Pre-conditions:
+        //        - dist is the distance between rows row and other
+        //        - complete if every row after row that is closer than other
+        //          has already been offered (i.e. during a scan)
+        // Post-conditions:
+        //        - other has been added to row's candidates, in order, if it
+        //          is closer than one of them, or if there is room and
+        //          complete (else it is not known to be among the closest)
+        private void offer(int row, int other, double dist, boolean complete) {
+            int base = row * CANDIDATES;
+            int c = this.count[row];
+            int pos = c;
+            while( pos > 0 && closer(this.forest[row], dist, this.forest[other],
+                                     this.distance[base + pos - 1], this.forest[this.candidate[base + pos - 1]]) ) {
+                pos--;
+            }
+            if( pos == c && (c == CANDIDATES || !complete) ) {
+                return;
+            }
+            int last = Math.min(c, CANDIDATES - 1);
+            for( int p=last; p>pos; p-- ) {
+                this.candidate[base + p] = this.candidate[base + p - 1];
+                this.distance[base + p] = this.distance[base + p - 1];
+            }
+            this.candidate[base + pos] = other;
+            this.distance[base + pos] = dist;
+            this.count[row] = last + 1;
+            return;
+        }
+
+        // remove
+        // Pre-conditions:
+        //        - None
+        // Post-conditions:
+        //        - other is no longer one of row's candidates
+        private void remove(int row, int other) {
+            int base = row * CANDIDATES;
+            int c = this.count[row];
+            for( int p=0; p<c; p++ ) {
+                if( this.candidate[base + p] == other ) {
+                    for( int q=p; q<c-1; q++ ) {
+                        this.candidate[base + q] = this.candidate[base + q + 1];
+                        this.distance[base + q] = this.distance[base + q + 1];
+                    }
+                    this.count[row] = c - 1;
+                    return;
+                }
+            }
+            return;
+        }
+    }
+}
@@ -0,0 +1,575 @@
+/*
+ * TreeFile.java
+ *
+ * Saves a built PhyloTree in a binary file, and loads it back through a
+ * memory mapping without re-reading the FASTA file or re-clustering.
+ *
+ * Layout (all numbers little-endian):
+ *
+ *   header   int magic ("PHYT"), int version, int flags, int nodes,
+ *            int leaves, int reserved, long payload length, long CRC-32
+ *            of the payload followed by header bytes 0-31
+ *   payload  int parent[nodes], int left[nodes], int right[nodes],
+ *            double distanceToChild[nodes]        (-1 for no node)
+ *            int leafNode[leaves]                 (node of each species, in
+ *                                                  getAllSpecies order)
+ *            int nameOffset[leaves + 1], byte names[]   (UTF-8 species names)
+ *            int tableLength, int table[tableLength]    (CompactTree's name table)
+ *            if flags has LCA_INDEX: int depth[nodes], double weightedDepth[nodes],
+ *            int first[nodes], int levels, then per level int length, int ids[length]
+ *
+ * Nodes are numbered in pre-order, left child first, which is also the
+ * numbering LcaIndex uses, so a saved LCA index can be used as is.  The
+ * loaded tree is a CompactTree; its arrays are bulk-copied out of the
+ * mapping onto the heap, which takes milliseconds even for large trees,
+ * so loading is fast but each process holds its own copy.  Sequences are
+ * not saved: the loaded species have empty sequences.
+ *
+ * The CRC catches accidental damage only, since anyone can recompute it.
+ * So a file is also checked before it is used: the header's counts must
+ * describe a complete tree (nodes == 2 * leaves - 1), every section must
+ * fit in the payload, the links must form that tree with every child
+ * numbered after its parent, each species must have a leaf of its own,
+ * the name table must only hold leaves, and a saved LCA index must have
+ * the right depths and sizes and refer only to nodes and tour positions
+ * that exist.  A file that fails gives an IOException rather than a huge
+ * allocation, a runtime exception or a loop.  (Queries on a file that
+ * passes can still give wrong answers if its distances, names or index
+ * entries were altered consistently.)
+ *
+ */
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.zip.CRC32;
+
+public class TreeFile {
+    public static final int MAGIC = 0x54594850;   // "PHYT", little-endian
+    public static final int VERSION = 2;
+    public static final int LCA_INDEX = 1;        // Flag: the LCA index is saved
+    private static final int HEADER = 40;         // Bytes before the payload
+    private static final int CHECKED = 32;        // Header bytes covered by the CRC
+
+    private CompactTree tree;             // The loaded tree
+    private Species[] species;            // Its species, in getAllSpecies order
+    private LcaIndex lcaIndex;            // The saved LCA index (null if not saved)
+
+    // CONSTRUCTOR
+
+    // TreeFile
+    // Pre-conditions:
+    //        - filename is the path of a file written by write
+    // Post-conditions:
+    //        - The file's tree, species and LCA index (if saved) have been loaded
+    //        - Throws IOException if the file cannot be read, or is not a
+    //          tree file of this version, or fails its checksum, or its
+    //          header or sections are inconsistent
+    public TreeFile(String filename) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if( size < HEADER || size > Integer.MAX_VALUE ) {
+                throw new IOException(filename + ": not a tree file");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if( buffer.getInt(0) != MAGIC ) {
+                throw new IOException(filename + ": not a tree file");
+            }
+            if( buffer.getInt(4) != VERSION ) {
+                throw new IOException(filename + ": unsupported tree file version " + buffer.getInt(4));
+            }
+            int flags = buffer.getInt(8);
+            int nodes = buffer.getInt(12);
+            int leaves = buffer.getInt(16);
+            if( buffer.getLong(24) != size - HEADER ) {
+                throw new IOException(filename + ": truncated tree file");
+            }
+            CRC32 crc = new CRC32();
+            buffer.position(HEADER);
+            crc.update(buffer);
+            crc.update(buffer.duplicate().position(0).limit(CHECKED));
+            if( crc.getValue() != buffer.getLong(CHECKED) ) {
+                throw new IOException(filename + ": tree file checksum mismatch");
+            }
+            if( nodes < 0 || leaves < 0 || nodes != Math.max(0, 2 * leaves - 1) ) {
+                throw new IOException(filename + ": bad node count " + nodes + " for " + leaves + " leaves");
+            }
+            if( fixedLength(flags, nodes, leaves) > size - HEADER ) {
+                throw new IOException(filename + ": tree file sections do not fit its payload");
+            }
+            buffer.position(HEADER);
+            try {
+                read(buffer, flags, nodes, leaves, filename);
+            } catch( BufferUnderflowException | IndexOutOfBoundsException e ) {
+                throw new IOException(filename + ": corrupt tree file", e);
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    // ACCESSORS
+
+    // getTree
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the loaded tree
+    public CompactTree getTree() {
+        return this.tree;
+    }
+
+    // getSpecies
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the tree's species, in the order they were saved
+    public Species[] getSpecies() {
+        return this.species;
+    }
+
+    // getLcaIndex
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the saved LCA index over getTree(), or null if it was
+    //          not saved
+    public LcaIndex getLcaIndex() {
+        return this.lcaIndex;
+    }
+
+    // read
+    // Pre-conditions:
+    //        - buffer is positioned at the start of the payload
+    // Post-conditions:
+    //        - The payload has been checked (see above) and loaded into this
+    //        - Throws IOException, naming filename, if a check fails
+    //        - Throws BufferUnderflowException if a section runs past the
+    //          payload
+    private void read(ByteBuffer buffer, int flags, int nodes, int leaves, String filename) throws IOException {
+        int[] parent = readInts(buffer, nodes);
+        int[] left = readInts(buffer, nodes);
+        int[] right = readInts(buffer, nodes);
+        double[] distanceToChild = readDoubles(buffer, nodes);
+        int[] leafNode = readInts(buffer, leaves);
+        int[] nameOffset = readInts(buffer, leaves + 1);
+        byte[] names = new byte[count(buffer, nameOffset[leaves], 1)];
+        buffer.get(names);
+        int[] table = readInts(buffer, buffer.getInt());
+        int[] depth = null;
+        double[] weightedDepth = null;
+        int[] first = null;
+        int[][] levels = null;
+        if( (flags & LCA_INDEX) != 0 ) {
+            depth = readInts(buffer, nodes);
+            weightedDepth = readDoubles(buffer, nodes);
+            first = readInts(buffer, nodes);
+            levels = new int[count(buffer, buffer.getInt(), 4)][];
+            for( int k=0; k<levels.length; k++ ) {
+                levels[k] = readInts(buffer, buffer.getInt());
+            }
+        }
+        if( buffer.hasRemaining() ) {
+            throw new IOException(filename + ": trailing bytes after the tree file's sections");
+        }
+        String problem = checkTree(parent, left, right);
+        if( problem == null ) {
+            problem = checkSpecies(left, leafNode, nameOffset, table);
+        }
+        if( problem == null && depth != null ) {
+            problem = checkLcaIndex(parent, depth, first, levels);
+        }
+        if( problem != null ) {
+            throw new IOException(filename + ": corrupt tree file: " + problem);
+        }
+
+        Species[] nodeSpecies = new Species[nodes];
+        this.species = new Species[leaves];
+        for( int s=0; s<leaves; s++ ) {
+            String name = new String(names, nameOffset[s], nameOffset[s+1] - nameOffset[s], StandardCharsets.UTF_8);
+            this.species[s] = new Species(name, "");
+            nodeSpecies[leafNode[s]] = this.species[s];
+        }
+        this.tree = new CompactTree(nodeSpecies, parent, left, right, distanceToChild, table);
+        if( depth != null ) {
+            this.lcaIndex = new LcaIndex(this.tree, depth, weightedDepth, first, levels);
+        }
+        return;
+    }
+
+    // checkTree
+    // Pre-conditions:
+    //        - parent, left and right have the same length
+    // Post-conditions:
+    //        - Returns null if they describe one tree rooted at node 0, in
+    //          which every node has no children or two, numbered after it
+    //          and linked back to it
+    //        - Else returns what is wrong
+    private static String checkTree(int[] parent, int[] left, int[] right) {
+        int nodes = parent.length;
+        if( nodes > 0 && parent[0] != -1 ) {
+            return "the root has a parent";
+        }
+        for( int id=0; id<nodes; id++ ) {
+            int l = left[id];
+            int r = right[id];
+            if( l == -1 && r == -1 ) {
+                continue;
+            }
+            if( l <= id || r <= id || l >= nodes || r >= nodes || l == r ) {
+                return "node " + id + " has bad children " + l + " and " + r;
+            }
+            if( parent[l] != id || parent[r] != id ) {
+                return "the children of node " + id + " do not link back to it";
+            }
+        }
+        // every node but the root is a child of its parent, which comes
+        // before it, so the links reach every node from the root
+        for( int id=1; id<nodes; id++ ) {
+            int p = parent[id];
+            if( p < 0 || p >= id || (left[p] != id && right[p] != id) ) {
+                return "node " + id + " has bad parent " + p;
+            }
+        }
+        return null;
+    }
+
+    // checkSpecies
+    // Pre-conditions:
+    //        - left is checked (see checkTree); nameOffset has one more entry
+    //          than leafNode, and its last entry is the names' length
+    // Post-conditions:
+    //        - Returns null if leafNode gives each species a leaf of its own,
+    //          the names' offsets never decrease, and table is a power of two
+    //          long, with room for every leaf and only empty slots and leaf
+    //          ids + 1 in it
+    //        - Else returns what is wrong
+    private static String checkSpecies(int[] left, int[] leafNode, int[] nameOffset, int[] table) {
+        int nodes = left.length;
+        boolean[] used = new boolean[nodes];
+        for( int s=0; s<leafNode.length; s++ ) {
+            int id = leafNode[s];
+            if( id < 0 || id >= nodes || left[id] != -1 || used[id] ) {
+                return "species " + s + " has bad leaf " + id;
+            }
+            used[id] = true;
+        }
+        for( int s=0; s<leafNode.length; s++ ) {
+            if( nameOffset[s] < 0 || nameOffset[s] > nameOffset[s+1] ) {
+                return "species " + s + " has a bad name offset";
+            }
+        }
+        if( table.length < Math.max(2, 2 * leafNode.length) || Integer.bitCount(table.length) != 1 ) {
+            return "bad name table length " + table.length;
+        }
+        for( int entry : table ) {
+            if( entry != 0 && (entry < 1 || entry > nodes || left[entry - 1] != -1) ) {
+                return "bad name table entry " + entry;
+            }
+        }
+        return null;
+    }
+
+    // checkLcaIndex
+    // Pre-conditions:
+    //        - parent is checked (see checkTree); depth and first have its
+    //          length
+    // Post-conditions:
+    //        - Returns null if depth holds each node's depth, first holds
+    //          positions in the Euler tour, and levels has one level per
+    //          power of two up to the tour's length, each as long as LcaIndex
+    //          makes it and holding only node ids
+    //        - Else returns what is wrong
+    private static String checkLcaIndex(int[] parent, int[] depth, int[] first, int[][] levels) {
+        int nodes = parent.length;
+        int tour = Math.max(0, 2 * nodes - 1);
+        for( int id=0; id<nodes; id++ ) {
+            int expected = (id == 0) ? 0 : depth[parent[id]] + 1;
+            if( depth[id] != expected ) {
+                return "node " + id + " has bad depth " + depth[id];
+            }
+            if( first[id] < 0 || first[id] >= tour ) {
+                return "node " + id + " has bad tour position " + first[id];
+            }
+        }
+        int expectedLevels = (tour == 0) ? 0 : 32 - Integer.numberOfLeadingZeros(tour);
+        if( levels.length != expectedLevels ) {
+            return levels.length + " LCA levels for a tour of " + tour;
+        }
+        for( int k=0; k<levels.length; k++ ) {
+            if( levels[k].length != tour - (1 << k) + 1 ) {
+                return "LCA level " + k + " has length " + levels[k].length;
+            }
+            for( int id : levels[k] ) {
+                if( id < 0 || id >= nodes ) {
+                    return "LCA level " + k + " has bad node " + id;
+                }
+            }
+        }
+        return null;
+    }
+
+    // STATIC
+
+    // fixedLength
+    // Pre-conditions:
+    //        - nodes and leaves are non-negative
+    // Post-conditions:
+    //        - Returns the number of payload bytes taken by the sections whose
+    //          lengths the header gives, which every valid payload has
+    private static long fixedLength(int flags, int nodes, int leaves) {
+        long length = 20L * nodes + 4L * leaves + 4L * (leaves + 1) + 4;
+        if( (flags & LCA_INDEX) != 0 ) {
+            length += 16L * nodes + 4;
+        }
+        return length;
+    }
+
+    // write
+    // Pre-conditions:
+    //        - root is the root of a tree whose leaves hold exactly the
+    //          species in species
+    //        - lcaIndex is an index of the tree, or null to not save one
+    //        - filename is the path of a file to (over)write
+    // Post-conditions:
+    //        - The tree (and index) have been saved in filename
+    public static void write(PhyloTreeNode root, List<Species> species, LcaIndex lcaIndex, String filename) throws IOException {
+        int leaves = species.size();
+        int nodes = (root == null) ? 0 : 2 * root.getNumLeafs() - 1;
+        final PhyloTreeNode[] order = new PhyloTreeNode[nodes];
+        final int[] parent = new int[nodes];
+        final int[] left = new int[nodes];
+        final int[] right = new int[nodes];
+        final double[] distanceToChild = new double[nodes];
+        final int[] pathIds = new int[(root == null) ? 0 : root.getHeight() + 1];
+
+        // number the nodes in pre-order; pathIds[d] is the id of the node
+        // at depth d of the current path
+        new TreeWalker().walk(root, new TreeVisitor<RuntimeException>() {
+            private int next = 0;
+
+            public boolean preVisit(PhyloTreeNode node, int depth, double weightedDepth) {
+                int id = this.next++;
+                order[id] = node;
+                pathIds[depth] = id;
+                left[id] = -1;
+                right[id] = -1;
+                distanceToChild[id] = node.getDistanceToChild();
+                parent[id] = (depth == 0) ? -1 : pathIds[depth - 1];
+                if( depth > 0 ) {
+                    if( order[parent[id]].getLeftChild() == node ) {
+                        left[parent[id]] = id;
+                    } else {
+                        right[parent[id]] = id;
+                    }
+                }
+                return true;
+            }
+        });
+
+        int[] leafNode = new int[leaves];
+        Species[] nodeSpecies = new Species[nodes];
+        int[] nameOffset = new int[leaves + 1];
+        byte[][] names = new byte[leaves][];
+        for( int id=0; id<nodes; id++ ) {
+            nodeSpecies[id] = order[id].isLeaf() ? order[id].getSpecies() : null;
+        }
+        IdentityHashMap<Species, Integer> speciesIndex = new IdentityHashMap<Species, Integer>(2 * leaves);
+        for( int s=0; s<leaves; s++ ) {
+            speciesIndex.put(species.get(s), s);
+            names[s] = species.get(s).getName().getBytes(StandardCharsets.UTF_8);
+            nameOffset[s+1] = nameOffset[s] + names[s].length;
+        }
+        for( int id=0; id<nodes; id++ ) {
+            if( nodeSpecies[id] != null ) {
+                leafNode[speciesIndex.get(nodeSpecies[id])] = id;
+            }
+        }
+        int[] table = new CompactTree(nodeSpecies, parent, left, right, distanceToChild, null).getNames();
+
+        // the saved index must number the nodes the same way
+        if( lcaIndex != null && !sameOrder(lcaIndex, order) ) {
+            lcaIndex = new LcaIndex(root);
+        }
+
+        Output out = new Output(filename);
+        try {
+            out.writeInts(parent);
+            out.writeInts(left);
+            out.writeInts(right);
+            out.writeDoubles(distanceToChild);
+            out.writeInts(leafNode);
+            out.writeInts(nameOffset);
+            for( byte[] name : names ) {
+                out.writeBytes(name);
+            }
+            out.writeInt(table.length);
+            out.writeInts(table);
+            if( lcaIndex != null ) {
+                out.writeInts(lcaIndex.getDepths());
+                out.writeDoubles(lcaIndex.getWeightedDepths());
+                out.writeInts(lcaIndex.getFirst());
+                int[][] levels = lcaIndex.getTable();
+                out.writeInt(levels.length);
+                for( int[] level : levels ) {
+                    out.writeInt(level.length);
+                    out.writeInts(level);
+                }
+            }
+            out.finish((lcaIndex != null) ? LCA_INDEX : 0, nodes, leaves);
+        } finally {
+            out.close();
+        }
+        return;
+    }
+
+    // sameOrder
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns true if index gives the nodes of order exactly their
+    //          positions in order as ids
+    private static boolean sameOrder(LcaIndex index, PhyloTreeNode[] order) {
+        if( index.getDepths().length != order.length ) {
+            return false;
+        }
+        for( int id=0; id<order.length; id++ ) {
+            if( index.id(order[id]) != id ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // count
+    // Pre-conditions:
+    //        - size is positive
+    // Post-conditions:
+    //        - Returns count if count values of size bytes fit in buffer's
+    //          remaining bytes
+    //        - Throws BufferUnderflowException if they do not, or count is negative
+    private static int count(ByteBuffer buffer, int count, int size) {
+        if( count < 0 || count > buffer.remaining() / size ) {
+            throw new BufferUnderflowException();
+        }
+        return count;
+    }
+
+    // readInts
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the next count ints, and buffer has moved past them
+    //        - Throws BufferUnderflowException if there are fewer than count
+    //          ints left, or count is negative
+    private static int[] readInts(ByteBuffer buffer, int count) {
+        int[] values = new int[count(buffer, count, 4)];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + 4 * count);
+        return values;
+    }
+
+    // readDoubles
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the next count doubles, and buffer has moved past them
+    //        - Throws BufferUnderflowException if there are fewer than count
+    //          doubles left, or count is negative
+    private static double[] readDoubles(ByteBuffer buffer, int count) {
+        double[] values = new double[count(buffer, count, 8)];
+        buffer.asDoubleBuffer().get(values);
+        buffer.position(buffer.position() + 8 * count);
+        return values;
+    }
+
+    // Writes the payload through a little-endian buffer, keeping its
+    // length and checksum, then the header in front of it
+    private static class Output {
+        private FileChannel channel;
+        private ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+        private CRC32 crc = new CRC32();
+        private long length;
+
+        Output(String filename) throws IOException {
+            this.channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            this.channel.position(HEADER);
+        }
+
+        void writeInt(int value) throws IOException {
+            room(4);
+            this.buffer.putInt(value);
+        }
+
+        void writeInts(int[] values) throws IOException {
+            for( int value : values ) {
+                room(4);
+                this.buffer.putInt(value);
+            }
+        }
+
+        void writeDoubles(double[] values) throws IOException {
+            for( double value : values ) {
+                room(8);
+                this.buffer.putDouble(value);
+            }
+        }
+
+        void writeBytes(byte[] values) throws IOException {
+            for( int i=0; i<values.length; ) {
+                room(1);
+                int count = Math.min(values.length - i, this.buffer.remaining());
+                this.buffer.put(values, i, count);
+                i += count;
+            }
+        }
+
+        // makes room for count bytes, writing out the buffer if needed
+        private void room(int count) throws IOException {
+            if( this.buffer.remaining() < count ) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            this.buffer.flip();
+            this.crc.update(this.buffer.array(), 0, this.buffer.limit());
+            this.length += this.buffer.limit();
+            while( this.buffer.hasRemaining() ) {
+                this.channel.write(this.buffer);
+            }
+            this.buffer.clear();
+        }
+
+        // writes out the rest of the payload, then the header, whose first
+        // CHECKED bytes the checksum also covers
+        void finish(int flags, int nodes, int leaves) throws IOException {
+            flush();
+            ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(flags).putInt(nodes).putInt(leaves).putInt(0);
+            header.putLong(this.length);
+            this.crc.update(header.array(), 0, CHECKED);
+            header.putLong(this.crc.getValue());
+            header.flip();
+            this.channel.position(0);
+            while( header.hasRemaining() ) {
+                this.channel.write(header);
+            }
+        }
+
+        void close() throws IOException {
+            this.channel.close();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * TreeSnapshot.java
+ *
+ * A built tree frozen at one moment (see PhyloTree.snapshot), for serving
+ * queries from any number of threads without locking.
+ *
+ * A snapshot never changes.  It shares the tree's nodes, label index and
+ * LcaIndex, which PhyloTree never changes once built (addSpecies and
+ * rebuild replace them, down to the nodes), and keeps its own copy of the
+ * species list.  So later changes to the PhyloTree do not show through,
+ * and since every field is final, a snapshot can be handed to other
+ * threads any way at all, e.g. through a LiveTree.
+ *
+ */
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+public final class TreeSnapshot {
+    private final PhyloTreeNode overallRoot;                // The root of the tree
+    private final Map<String, PhyloTreeNode> labelIndex;    // Every node, by label (null for a CompactTree)
+    private final CompactTree compactTree;                  // The tree's storage, if compact (else null)
+    private final LcaIndex lcaIndex;                        // Answers the ancestor and distance queries
+    private final List<Species> species;                    // Every species, unmodifiable
+
+    // CONSTRUCTOR
+
+    // TreeSnapshot
+    // Pre-conditions:
+    //        - The arguments are a PhyloTree's, none of which will be
+    //          changed again
+    //        - Either labelIndex or compactTree is non-null, unless the
+    //          tree is empty
+    // Post-conditions:
+    //        - A snapshot of the tree has been created
+    TreeSnapshot(PhyloTreeNode overallRoot, Map<String, PhyloTreeNode> labelIndex, CompactTree compactTree,
+                 LcaIndex lcaIndex, Species[] species) {
+        this.overallRoot = overallRoot;
+        this.labelIndex = labelIndex;
+        this.compactTree = compactTree;
+        this.lcaIndex = lcaIndex;
+        this.species = Collections.unmodifiableList(Arrays.asList(species.clone()));
+    }
+
+    // ACCESSORS
+
+    // getOverallRoot
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the root of the tree (null if it is empty)
+    public PhyloTreeNode getOverallRoot() {
+        return this.overallRoot;
+    }
+
+    // countAllSpecies
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the number of species in the tree
+    public int countAllSpecies() {
+        return this.species.size();
+    }
+
+    // getAllSpecies
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns every species in the tree, in the order the tree was
+    //          built from them, as a list that cannot be changed
+    public List<Species> getAllSpecies() {
+        return this.species;
+    }
+
+    // findTreeNodeByLabel
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the node labelled label, or null if there is none
+    public PhyloTreeNode findTreeNodeByLabel(String label) {
+        if( this.compactTree != null ) {
+            return this.compactTree.find(label);
+        }
+        return (this.labelIndex != null) ? this.labelIndex.get(label) : null;
+    }
+
+    // findLeastCommonAncestor
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the least common ancestor of the nodes labelled
+    //          label1 and label2, or null if either cannot be found
+    public PhyloTreeNode findLeastCommonAncestor(String label1, String label2) {
+        return this.lcaIndex.lca(findTreeNodeByLabel(label1), findTreeNodeByLabel(label2));
+    }
+
+    // findEvolutionaryDistance
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the sum of the weights along the paths from the least
+    //          common ancestor of the nodes labelled label1 and label2 to
+    //          each of them, or POSITIVE_INFINITY if either cannot be found
+    public double findEvolutionaryDistance(String label1, String label2) {
+        return this.lcaIndex.distance(findTreeNodeByLabel(label1), findTreeNodeByLabel(label2));
+    }
+
+    // resolveLabels, getNodeById, findEvolutionaryDistances,
+    // findLeastCommonAncestors
+    // Pre-conditions:
+    //        - See PhyloTree's
+    // Post-conditions:
+    //        - As PhyloTree's, for this snapshot; node ids are good for as
+    //          long as the snapshot is
+    public void resolveLabels(String[] labels, int[] ids, int count, int parallelism) {
+        BatchQuery.resolve(this.lcaIndex, this::findTreeNodeByLabel, labels, ids, count, parallelism);
+    }
+
+    public PhyloTreeNode getNodeById(int id) {
+        return this.lcaIndex.node(id);
+    }
+
+    public void findEvolutionaryDistances(int[] ids1, int[] ids2, double[] distances, int count, int parallelism) {
+        BatchQuery.distances(this.lcaIndex, ids1, ids2, distances, count, parallelism);
+    }
+
+    public void findEvolutionaryDistances(String[] labels1, String[] labels2, double[] distances, int count, int parallelism) {
+        BatchQuery.distances(this.lcaIndex, this::findTreeNodeByLabel, labels1, labels2, distances, count, parallelism);
+    }
+
+    public void findLeastCommonAncestors(int[] ids1, int[] ids2, int[] ancestors, int count, int parallelism) {
+        BatchQuery.ancestors(this.lcaIndex, ids1, ids2, ancestors, count, parallelism);
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * TreeVisitor.java
+ *
+ * Receives the nodes of a PhyloTree from a TreeWalker.
+ *
+ * Every node is visited three times: before its children (preVisit),
+ * between them (inVisit) and after them (postVisit).  A leaf has no
+ * children, so its three visits come one after the other.  A pre-order,
+ * in-order or post-order traversal implements just the matching method;
+ * a reverse in-order [RNL] traversal implements inVisit and is walked with
+ * TreeWalker.walkReversed.
+ *
+ * depth and weightedDepth are measured from the node the walk started at.
+ * Visits may throw E, so e.g. a visitor writing to a Writer can let its
+ * IOException through the walk.
+ *
+ */
+
+public interface TreeVisitor<E extends Exception> {
+
+    // preVisit
+    // Pre-conditions:
+    //        - node is the next node of the walk; none of its descendants
+    //          have been visited
+    // Post-conditions:
+    //        - Returns false to skip node's subtree: its children, and its
+    //          own inVisit and postVisit, are not visited
+    default boolean preVisit(PhyloTreeNode node, int depth, double weightedDepth) throws E {
+        return true;
+    }
+
+    // inVisit
+    // Pre-conditions:
+    //        - node's first child's subtree has been walked (for a leaf,
+    //          preVisit has just been called)
+    // Post-conditions:
+    //        - None
+    default void inVisit(PhyloTreeNode node, int depth, double weightedDepth) throws E {
+        return;
+    }
+
+    // postVisit
+    // Pre-conditions:
+    //        - Both of node's subtrees have been walked (for a leaf, inVisit
+    //          has just been called)
+    // Post-conditions:
+    //        - None
+    default void postVisit(PhyloTreeNode node, int depth, double weightedDepth) throws E {
+        return;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * TreeWalker.java
+ *
+ * Walks a PhyloTree with an explicit stack instead of recursion, so trees
+ * of any depth (e.g. the caterpillar trees UPGMA builds from near-identical
+ * sequences) can be walked on the default thread stack.
+ *
+ * The stack holds one entry per level of the current path: the node, how
+ * many of its children have been walked, and its weighted depth, which is
+ * computed as parent.getDistanceToChild() + the parent's weighted depth,
+ * the same sum as PhyloTree.weightedNodeDepth.  The stack only grows, so a
+ * walker reused for many walks allocates nothing once it has seen the
+ * deepest tree.
+ *
+ */
+
+import java.util.Arrays;
+
+public class TreeWalker {
+    private PhyloTreeNode[] nodes = new PhyloTreeNode[64];    // nodes[d] is the node at depth d of the current path
+    private int[] walked = new int[64];                       // walked[d] is how many of its children have been walked
+    private double[] weightedDepth = new double[64];          // weightedDepth[d] is its weighted depth
+
+    // walk
+    // Pre-conditions:
+    //        - root is the root of a tree (possibly subtree), or null
+    // Post-conditions:
+    //        - visitor has visited every node of the tree, left child first
+    //          (see TreeVisitor for the order of the visits)
+    public <E extends Exception> void walk(PhyloTreeNode root, TreeVisitor<E> visitor) throws E {
+        walk(root, visitor, false);
+    }
+
+    // walkReversed
+    // Pre-conditions:
+    //        - root is the root of a tree (possibly subtree), or null
+    // Post-conditions:
+    //        - visitor has visited every node of the tree, right child first
+    public <E extends Exception> void walkReversed(PhyloTreeNode root, TreeVisitor<E> visitor) throws E {
+        walk(root, visitor, true);
+    }
+
+    // parent
+    // Pre-conditions:
+    //        - Called by a visitor during a walk, with the depth it was given
+    // Post-conditions:
+    //        - Returns the parent of the node being visited on the walk's
+    //          path, or null for the node the walk started at
+    // Notes:
+    //        - Unlike PhyloTreeNode.getParent, this is the node the walk
+    //          came down from, so it holds however the node's parent link
+    //          has been changed since
+    public PhyloTreeNode parent(int depth) {
+        return (depth > 0) ? this.nodes[depth - 1] : null;
+    }
+
+    // walk
+    // Pre-conditions:
+    //        - root is the root of a tree (possibly subtree), or null
+    // Post-conditions:
+    //        - visitor has visited every node of the tree, right child first
+    //          if rightFirst, else left child first
+    private <E extends Exception> void walk(PhyloTreeNode root, TreeVisitor<E> visitor, boolean rightFirst) throws E {
+        if( root == null ) {
+            return;
+        }
+        int top = 0;
+        this.nodes[0] = root;
+        this.walked[0] = 0;
+        this.weightedDepth[0] = 0.0;
+        while( top >= 0 ) {
+            PhyloTreeNode node = this.nodes[top];
+            double depth = this.weightedDepth[top];
+            if( node.isLeaf() ) {
+                if( visitor.preVisit(node, top, depth) ) {
+                    visitor.inVisit(node, top, depth);
+                    visitor.postVisit(node, top, depth);
+                }
+                this.nodes[top--] = null;
+                continue;
+            }
+            PhyloTreeNode child;
+            int walked = this.walked[top]++;
+            if( walked == 0 ) {
+                if( !visitor.preVisit(node, top, depth) ) {
+                    this.nodes[top--] = null;
+                    continue;
+                }
+                child = rightFirst ? node.getRightChild() : node.getLeftChild();
+            } else if( walked == 1 ) {
+                visitor.inVisit(node, top, depth);
+                child = rightFirst ? node.getLeftChild() : node.getRightChild();
+            } else {
+                visitor.postVisit(node, top, depth);
+                this.nodes[top--] = null;
+                continue;
+            }
+            if( ++top == this.nodes.length ) {
+                grow();
+            }
+            this.nodes[top] = child;
+            this.walked[top] = 0;
+            this.weightedDepth[top] = node.getDistanceToChild() + depth;
+        }
+        return;
+    }
+
+    // grow
+    // Pre-conditions:
+    //        - The stack is full
+    // Post-conditions:
+    //        - The stack has twice the room
+    private void grow() {
+        int length = 2 * this.nodes.length;
+        this.nodes = Arrays.copyOf(this.nodes, length);
+        this.walked = Arrays.copyOf(this.walked, length);
+        this.weightedDepth = Arrays.copyOf(this.weightedDepth, length);
+        return;
+    }
+}
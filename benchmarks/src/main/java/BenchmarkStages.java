@@ -0,0 +1,81 @@
+/*
+ * BenchmarkStages.java
+ *
+ * Implements phylotree.benchmarks.Stages from the default package, so
+ * that the benchmarks can call PhyloTree (see Stages for why).
+ *
+ */
+
+import phylotree.benchmarks.Stages;
+
+public class BenchmarkStages implements Stages {
+
+    // CONSTRUCTOR
+
+    // BenchmarkStages
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - The stages can be called
+    public BenchmarkStages() {
+    }
+
+    public Object load(String fastaFile) {
+        return PhyloTree.loadSpeciesFile(fastaFile);
+    }
+
+    public int count(Object species) {
+        return ((Species[]) species).length;
+    }
+
+    public String[] names(Object species) {
+        Species[] all = (Species[]) species;
+        String[] names = new String[all.length];
+        for( int i=0; i<all.length; i++ ) {
+            names[i] = all[i].getName();
+        }
+        return names;
+    }
+
+    public double distance(Object species, int i, int j) {
+        Species[] all = (Species[]) species;
+        return Species.distance(all[i], all[j]);
+    }
+
+    public Object build(Object species, String engine) {
+        BuildOptions options = new BuildOptions();
+        options.setEngine(engineFor(engine));
+        return new PhyloTree((Species[]) species, 1, options);
+    }
+
+    public double evolutionaryDistance(Object tree, String label1, String label2) {
+        return ((PhyloTree) tree).findEvolutionaryDistance(label1, label2);
+    }
+
+    public String render(Object tree) {
+        return ((PhyloTree) tree).toString();
+    }
+
+    public String renderTree(Object tree) {
+        return ((PhyloTree) tree).toTreeString();
+    }
+
+    // engineFor
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns a new engine of the given name (see Stages.build)
+    //        - Throws IllegalArgumentException for any other name
+    private static ClusteringEngine engineFor(String engine) {
+        if( engine.equals("nn-chain") ) {
+            return new NearestNeighborChainEngine();
+        } else if( engine.equals("greedy") ) {
+            return new GreedyEngine();
+        } else if( engine.equals("row-minimum") ) {
+            return new RowMinimumEngine();
+        } else if( engine.equals("neighbor-joining") ) {
+            return new NeighborJoiningEngine();
+        }
+        throw new IllegalArgumentException("unknown engine: " + engine);
+    }
+}
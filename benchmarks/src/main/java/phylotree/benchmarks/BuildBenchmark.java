@@ -0,0 +1,42 @@
+/*
+ * BuildBenchmark.java
+ *
+ * Times building a PhyloTree from loaded species: filling the distance
+ * matrix, clustering and indexing the tree.  This is the stage most
+ * likely to grow faster than n^2 if something goes wrong.
+ *
+ * Other engines can be timed with -p engine=greedy,row-minimum,...
+ *
+ */
+
+package phylotree.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BuildBenchmark {
+
+    @Param({"nn-chain"})
+    public String engine;   // See Stages.build
+
+    @Benchmark
+    public Object buildTree(SyntheticInput input) {
+        return input.stages.build(input.loaded, this.engine);
+    }
+}
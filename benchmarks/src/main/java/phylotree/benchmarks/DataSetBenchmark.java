@@ -0,0 +1,87 @@
+/*
+ * DataSetBenchmark.java
+ *
+ * Times loading and building the trees of the assignment's data sets:
+ * every FASTA file named in animals.list or plants.list, one tree per
+ * file.  The lists name files under prog3_data/, relative to the
+ * directory given by -Dphylotree.data (by default the working
+ * directory, i.e. run from the top of the repository).  Files that are
+ * missing are left out; a list with no files at all fails its setup.
+ *
+ */
+
+package phylotree.benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DataSetBenchmark {
+
+    @Param({"animals.list", "plants.list"})
+    public String list;
+
+    Stages stages;
+    List<String> files = new ArrayList<String>();   // The list's files that exist
+    List<Object> loaded = new ArrayList<Object>();  // The species of each file
+
+    // setUp
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - files and loaded hold the list's files and their species
+    //        - Throws IllegalStateException if none of the files exist
+    @Setup
+    public void setUp() throws IOException {
+        this.stages = Stages.get();
+        Path data = Paths.get(System.getProperty("phylotree.data", "."));
+        for( String line : Files.readAllLines(data.resolve(this.list), StandardCharsets.UTF_8) ) {
+            Path file = data.resolve(line.trim());
+            if( line.trim().length() > 0 && Files.isRegularFile(file) ) {
+                this.files.add(file.toString());
+                this.loaded.add(this.stages.load(file.toString()));
+            }
+        }
+        if( this.files.isEmpty() ) {
+            throw new IllegalStateException("none of the files in " + data.resolve(this.list) + " exist");
+        }
+    }
+
+    @Benchmark
+    public void loadSpeciesFile(Blackhole blackhole) {
+        for( String file : this.files ) {
+            blackhole.consume(this.stages.load(file));
+        }
+    }
+
+    @Benchmark
+    public void buildTree(Blackhole blackhole) {
+        for( Object species : this.loaded ) {
+            blackhole.consume(this.stages.build(species, "nn-chain"));
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * DistanceBenchmark.java
+ *
+ * Times Species.distance between one pair of species, going through the
+ * pairs in a fixed random order.  The time depends on the sequence length,
+ * not on the number of species.
+ *
+ */
+
+package phylotree.benchmarks;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DistanceBenchmark {
+    static final int PAIRS = 1024;   // Pairs gone through, so that no one pair stays in cache
+
+    @State(Scope.Thread)
+    public static class Pairs {
+        int[] first = new int[PAIRS];
+        int[] second = new int[PAIRS];
+        int next;
+
+        @Setup
+        public void setUp(SyntheticInput input) {
+            SplittableRandom random = new SplittableRandom(SyntheticInput.SEED);
+            for( int p=0; p<PAIRS; p++ ) {
+                this.first[p] = random.nextInt(input.species);
+                this.second[p] = random.nextInt(input.species);
+            }
+        }
+    }
+
+    @Benchmark
+    public double distance(SyntheticInput input, Pairs pairs) {
+        int p = pairs.next;
+        pairs.next = (p + 1) % PAIRS;
+        return input.stages.distance(input.loaded, pairs.first[p], pairs.second[p]);
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * LoadBenchmark.java
+ *
+ * Times PhyloTree.loadSpeciesFile: reading and parsing a FASTA file.
+ *
+ */
+
+package phylotree.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoadBenchmark {
+
+    @Benchmark
+    public Object loadSpeciesFile(SyntheticInput input) {
+        return input.stages.load(input.file.toString());
+    }
+}
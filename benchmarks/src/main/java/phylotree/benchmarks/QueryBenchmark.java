@@ -0,0 +1,65 @@
+/*
+ * QueryBenchmark.java
+ *
+ * Times PhyloTree.findEvolutionaryDistance between one pair of species of
+ * a built tree, going through the pairs in a fixed random order.
+ *
+ */
+
+package phylotree.benchmarks;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryBenchmark {
+    static final int PAIRS = 1024;   // Pairs gone through, so that no one pair stays in cache
+
+    @State(Scope.Benchmark)
+    public static class Tree {
+        Object tree;
+
+        @Setup
+        public void setUp(SyntheticInput input) {
+            this.tree = input.stages.build(input.loaded, "nn-chain");
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Pairs {
+        String[] first = new String[PAIRS];
+        String[] second = new String[PAIRS];
+        int next;
+
+        @Setup
+        public void setUp(SyntheticInput input) {
+            SplittableRandom random = new SplittableRandom(SyntheticInput.SEED);
+            for( int p=0; p<PAIRS; p++ ) {
+                this.first[p] = input.names[random.nextInt(input.species)];
+                this.second[p] = input.names[random.nextInt(input.species)];
+            }
+        }
+    }
+
+    @Benchmark
+    public double findEvolutionaryDistance(SyntheticInput input, Tree tree, Pairs pairs) {
+        int p = pairs.next;
+        pairs.next = (p + 1) % PAIRS;
+        return input.stages.evolutionaryDistance(tree.tree, pairs.first[p], pairs.second[p]);
+    }
+}
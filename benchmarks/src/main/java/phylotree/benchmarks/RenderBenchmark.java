@@ -0,0 +1,46 @@
+/*
+ * RenderBenchmark.java
+ *
+ * Times printing a built tree with PhyloTree.toString and toTreeString.
+ *
+ */
+
+package phylotree.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RenderBenchmark {
+    Object tree;
+
+    @Setup
+    public void setUp(SyntheticInput input) {
+        this.tree = input.stages.build(input.loaded, "nn-chain");
+    }
+
+    @Benchmark
+    public String treeToString(SyntheticInput input) {
+        return input.stages.render(this.tree);
+    }
+
+    @Benchmark
+    public String treeToTreeString(SyntheticInput input) {
+        return input.stages.renderTree(this.tree);
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * ScalingReport.java
+ *
+ * Runs the benchmarks with JMH's gc profiler and prints, for every
+ * benchmark of synthetic data, how its time per operation grows with the
+ * number of species: a scaling curve of throughput, time and allocation
+ * per operation at each species count, and the exponent k of the best fit
+ * time ~ n^k.  A k above the limit (2.5 by default, set with
+ * -Dscaling.limit) is reported as a regression and makes the run exit with
+ * status 1, so an O(n^3) stage is caught before it ships.
+ *
+ * Arguments are the usual JMH ones, e.g.
+ *
+ *   java -jar benchmarks.jar Build -p species=128,256,512 -rf csv
+ *
+ * runs only BuildBenchmark at three sizes and also writes JMH's own CSV.
+ *
+ */
+
+package phylotree.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+public final class ScalingReport {
+    private static final String SIZE = "species";   // The parameter the curves are drawn over
+
+    private ScalingReport() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        double limit = Double.parseDouble(System.getProperty("scaling.limit", "2.5"));
+        Options options = new OptionsBuilder()
+            .parent(new CommandLineOptions(args))
+            .addProfiler(GCProfiler.class)
+            .build();
+        Collection<RunResult> results = new Runner(options).run();
+        boolean regressed = print(results, limit);
+        System.exit(regressed ? 1 : 0);
+    }
+
+    // print
+    // Pre-conditions:
+    //        - results were measured in throughput mode
+    // Post-conditions:
+    //        - The scaling curve of every benchmark with a species count has
+    //          been printed, one per benchmark and setting of its other
+    //          parameters
+    //        - Returns true if some curve's exponent is above limit
+    static boolean print(Collection<RunResult> results, double limit) {
+        // Curves by benchmark and other parameters, points by species count
+        Map<String, TreeMap<Integer, RunResult>> curves = new TreeMap<String, TreeMap<Integer, RunResult>>();
+        for( RunResult result : results ) {
+            BenchmarkParams params = result.getParams();
+            String size = params.getParam(SIZE);
+            if( size == null ) {
+                continue;
+            }
+            StringBuilder key = new StringBuilder(params.getBenchmark());
+            for( String name : params.getParamsKeys() ) {
+                if( !name.equals(SIZE) ) {
+                    key.append(' ').append(name).append('=').append(params.getParam(name));
+                }
+            }
+            TreeMap<Integer, RunResult> curve = curves.get(key.toString());
+            if( curve == null ) {
+                curve = new TreeMap<Integer, RunResult>();
+                curves.put(key.toString(), curve);
+            }
+            curve.put(Integer.valueOf(size), result);
+        }
+
+        boolean regressed = false;
+        System.out.println();
+        System.out.println("Scaling with the number of species (limit n^" + limit + ")");
+        for( Map.Entry<String, TreeMap<Integer, RunResult>> curve : curves.entrySet() ) {
+            System.out.println();
+            System.out.println(curve.getKey());
+            System.out.printf("  %8s %14s %14s %14s%n", "species", "ops/s", "us/op", "B/op");
+            List<double[]> points = new ArrayList<double[]>();
+            for( Map.Entry<Integer, RunResult> point : curve.getValue().entrySet() ) {
+                double throughput = point.getValue().getPrimaryResult().getScore();
+                double micros = 1e6 / throughput;
+                System.out.printf("  %8d %14.3f %14.3f %14s%n", point.getKey(), throughput, micros,
+                                  allocated(point.getValue()));
+                points.add(new double[] {Math.log(point.getKey()), Math.log(micros)});
+            }
+            if( points.size() < 2 ) {
+                continue;
+            }
+            double exponent = slope(points);
+            boolean over = exponent > limit;
+            regressed |= over;
+            System.out.printf("  time ~ n^%.2f%s%n", exponent, over ? "   <-- above n^" + limit : "");
+        }
+        return regressed;
+    }
+
+    // allocated
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the bytes allocated per operation, as measured by the
+    //          gc profiler, or "-" if it was not run
+    private static String allocated(RunResult result) {
+        for( Map.Entry<String, Result> secondary : result.getSecondaryResults().entrySet() ) {
+            if( secondary.getKey().endsWith("gc.alloc.rate.norm") ) {
+                return String.format("%.0f", secondary.getValue().getScore());
+            }
+        }
+        return "-";
+    }
+
+    // slope
+    // Pre-conditions:
+    //        - points holds at least two (x, y) points with different x
+    // Post-conditions:
+    //        - Returns the slope of the least-squares line through points
+    private static double slope(List<double[]> points) {
+        double meanX = 0.0;
+        double meanY = 0.0;
+        for( double[] point : points ) {
+            meanX += point[0] / points.size();
+            meanY += point[1] / points.size();
+        }
+        double covariance = 0.0;
+        double variance = 0.0;
+        for( double[] point : points ) {
+            covariance += (point[0] - meanX) * (point[1] - meanY);
+            variance += (point[0] - meanX) * (point[0] - meanX);
+        }
+        return covariance / variance;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Stages.java
+ *
+ * The stages of building and using a PhyloTree that the benchmarks time,
+ * one method per stage.
+ *
+ * JMH does not accept benchmarks in the default package, and code in a
+ * package cannot name the classes in the default package, where phylotree
+ * lives.  So the benchmarks call the library through this interface,
+ * which BenchmarkStages implements from the default package.  Species
+ * arrays and trees are passed around as plain Objects; the calls are
+ * ordinary interface calls, so they cost nothing next to the stages.
+ *
+ */
+
+package phylotree.benchmarks;
+
+public interface Stages {
+
+    // load
+    // Pre-conditions:
+    //        - fastaFile is the path of a FASTA file
+    // Post-conditions:
+    //        - Returns the species in the file, via PhyloTree.loadSpeciesFile
+    Object load(String fastaFile);
+
+    // count
+    // Pre-conditions:
+    //        - species was returned by load
+    // Post-conditions:
+    //        - Returns the number of species
+    int count(Object species);
+
+    // names
+    // Pre-conditions:
+    //        - species was returned by load
+    // Post-conditions:
+    //        - Returns the species' names, in order
+    String[] names(Object species);
+
+    // distance
+    // Pre-conditions:
+    //        - species was returned by load, and i and j are indexes into it
+    // Post-conditions:
+    //        - Returns Species.distance between species i and j
+    double distance(Object species, int i, int j);
+
+    // build
+    // Pre-conditions:
+    //        - species was returned by load
+    //        - engine is one of "nn-chain", "greedy", "row-minimum" or
+    //          "neighbor-joining"
+    // Post-conditions:
+    //        - Returns a PhyloTree built from species by engine, with the
+    //          other build options left at their defaults
+    Object build(Object species, String engine);
+
+    // evolutionaryDistance
+    // Pre-conditions:
+    //        - tree was returned by build
+    // Post-conditions:
+    //        - Returns PhyloTree.findEvolutionaryDistance(label1, label2)
+    double evolutionaryDistance(Object tree, String label1, String label2);
+
+    // render
+    // Pre-conditions:
+    //        - tree was returned by build
+    // Post-conditions:
+    //        - Returns PhyloTree.toString()
+    String render(Object tree);
+
+    // renderTree
+    // Pre-conditions:
+    //        - tree was returned by build
+    // Post-conditions:
+    //        - Returns PhyloTree.toTreeString()
+    String renderTree(Object tree);
+
+    // STATIC
+
+    // get
+    // Pre-conditions:
+    //        - BenchmarkStages is on the class path
+    // Post-conditions:
+    //        - Returns a new BenchmarkStages
+    static Stages get() {
+        try {
+            return (Stages) Class.forName("BenchmarkStages").getDeclaredConstructor().newInstance();
+        } catch( ReflectiveOperationException ex ) {
+            throw new IllegalStateException("BenchmarkStages is missing from the class path", ex);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * SyntheticFasta.java
+ *
+ * Writes FASTA files of any number of species and sequence length, for
+ * benchmarking.  The sequences are evolved along a random binary tree: a
+ * random root sequence is split in two again and again, each copy picking
+ * up its own random substitutions, until there are enough species.  So
+ * the distances look like those of real data (nested groups of close
+ * species) rather than those of unrelated random sequences, which are all
+ * about the same.
+ *
+ * The same count, length and seed always give the same file.
+ *
+ */
+
+package phylotree.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+public final class SyntheticFasta {
+    private static final char[] BASES = {'A', 'C', 'G', 'T'};
+    private static final double MIN_RATE = 0.005;   // Fewest substitutions per site along one branch
+    private static final double MAX_RATE = 0.08;    // Most substitutions per site along one branch
+    private static final int LINE = 70;             // Sequence characters per line
+
+    private SyntheticFasta() {
+    }
+
+    // write
+    // Pre-conditions:
+    //        - count and length are positive
+    // Post-conditions:
+    //        - file holds count species of length sites each, named
+    //          Sp_<seed>_<i>, with headers in the format of the assignment
+    public static void write(Path file, int count, int length, long seed) throws IOException {
+        SplittableRandom random = new SplittableRandom(seed);
+        List<char[]> sequences = new ArrayList<char[]>();
+        char[] root = new char[length];
+        for( int i=0; i<length; i++ ) {
+            root[i] = BASES[random.nextInt(BASES.length)];
+        }
+        sequences.add(root);
+        while( sequences.size() < count ) {
+            char[] parent = sequences.remove(random.nextInt(sequences.size()));
+            sequences.add(mutate(parent, random));
+            sequences.add(mutate(parent, random));
+        }
+
+        try( BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.ISO_8859_1) ) {
+            for( int i=0; i<count; i++ ) {
+                out.write(">" + i + "|synthetic|gi|" + i + "|ref|NC_" + i + "|Sp_" + seed + "_" + i);
+                out.newLine();
+                char[] sequence = sequences.get(i);
+                for( int start=0; start<length; start+=LINE ) {
+                    out.write(sequence, start, Math.min(LINE, length - start));
+                    out.newLine();
+                }
+            }
+        }
+        return;
+    }
+
+    // mutate
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns a copy of parent in which each site has been replaced
+    //          by a random base with a probability drawn for the branch
+    private static char[] mutate(char[] parent, SplittableRandom random) {
+        double rate = MIN_RATE + random.nextDouble() * (MAX_RATE - MIN_RATE);
+        char[] child = parent.clone();
+        for( int i=0; i<child.length; i++ ) {
+            if( random.nextDouble() < rate ) {
+                child[i] = BASES[random.nextInt(BASES.length)];
+            }
+        }
+        return child;
+    }
+}
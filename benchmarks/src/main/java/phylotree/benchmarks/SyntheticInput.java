@@ -0,0 +1,61 @@
+/*
+ * SyntheticInput.java
+ *
+ * The JMH state shared by the benchmarks of synthetic data: a FASTA file
+ * written by SyntheticFasta for each species count and sequence length,
+ * and the species loaded from it.  Running the benchmarks at several
+ * counts gives the scaling curves that ScalingReport prints.
+ *
+ */
+
+package phylotree.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+@State(Scope.Benchmark)
+public class SyntheticInput {
+    static final long SEED = 17;   // Seed of every synthetic file, so that runs compare
+
+    @Param({"64", "256", "1024"})
+    public int species;            // Number of species
+
+    @Param({"100", "1000"})
+    public int length;             // Sites per sequence
+
+    Stages stages;
+    Path file;                     // The FASTA file
+    Object loaded;                 // The species loaded from it
+    String[] names;                // Their names
+
+    // setUp
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - file has been written and loaded
+    @Setup
+    public void setUp() throws IOException {
+        this.stages = Stages.get();
+        this.file = Files.createTempFile("phylotree-" + this.species + "x" + this.length + "-", ".fasta");
+        SyntheticFasta.write(this.file, this.species, this.length, SEED);
+        this.loaded = this.stages.load(this.file.toString());
+        this.names = this.stages.names(this.loaded);
+    }
+
+    // tearDown
+    // Pre-conditions:
+    //        - setUp has run
+    // Post-conditions:
+    //        - file has been deleted
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(this.file);
+    }
+}
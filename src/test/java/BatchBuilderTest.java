@@ -0,0 +1,117 @@
+/*
+ * BatchBuilderTest.java
+ *
+ * Checks that a batch with failing files still builds the others and
+ * writes summary.tsv: files that are missing, unaligned, or whose build
+ * throws an exception or an Error, next to good files, two of which share
+ * a name.
+ *
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class BatchBuilderTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    public void failuresAreRecorded() throws IOException {
+        for( boolean virtual : new boolean[] {false, true} ) {
+            run(virtual);
+        }
+    }
+
+    @Test
+    public void manifestPaths() throws IOException {
+        write("lists/a.fasta", ">a\nAC\n");
+        Path manifest = write("lists/batch.list", "# a comment\n\na.fasta\n  missing.fasta  \n");
+        List<String> files = BatchBuilder.readManifest(manifest.toString());
+        assertEquals(List.of(dir.resolve("lists/a.fasta").toString(), "missing.fasta"), files);
+    }
+
+    // run
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Fails unless a batch of good and failing files, loaded on
+    //          virtual threads if virtual, gives the expected results
+    private void run(boolean virtual) throws IOException {
+        String good = ">a\nACGTAC\n>b\nACGTTT\n>c\nAGGTTT\n";
+        List<String> files = new ArrayList<String>();
+        files.add(write("one/x.fasta", good).toString());
+        files.add(dir.resolve("missing.fasta").toString());
+        files.add(write("unaligned.fasta", ">a\nACGT\n>b\nACG\n").toString());
+        files.add(write("throws.fasta", ">x|a\nACGT\n>x|oops\nACGA\n").toString());
+        files.add(write("error.fasta", ">x|a\nACGT\n>x|boom\nACGA\n").toString());
+        files.add(write("two/x.ref.fasta", good).toString());
+
+        File output = dir.resolve(virtual ? "virtual" : "platform").toFile();
+        BatchBuilder batch = new BatchBuilder(2, virtual, output);
+        batch.setEngine(new FailingEngine());
+        List<BatchBuilder.Result> results = batch.run(files);
+
+        assertEquals(files.size(), results.size());
+        for( int i=0; i<files.size(); i++ ) {
+            assertEquals(files.get(i), results.get(i).file);
+        }
+        assertNull(results.get(0).error);
+        assertEquals(3, results.get(0).species);
+        assertTrue(results.get(1).error.startsWith("Unable to open file"));
+        assertTrue(results.get(2).error.startsWith("Sequences are not aligned"));
+        assertEquals(new IllegalStateException("oops").toString(), results.get(3).error);
+        assertEquals(new StackOverflowError("boom").toString(), results.get(4).error);
+        assertNull(results.get(5).error);
+
+        String tree = new PhyloTree(files.get(0), 1).toTreeString();
+        assertEquals(tree, Files.readString(new File(output, "x.1.tree").toPath()).trim());
+        assertEquals(tree, Files.readString(new File(output, "x.6.tree").toPath()).trim());
+        assertFalse(new File(output, "throws.tree").exists());
+        List<String> summary = Files.readAllLines(new File(output, "summary.tsv").toPath());
+        assertEquals(1 + files.size(), summary.size());
+        for( int i=0; i<files.size(); i++ ) {
+            assertEquals(results.get(i).toString(), summary.get(i + 1));
+        }
+    }
+
+    // write
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the file name in dir, created holding text
+    private Path write(String name, String text) throws IOException {
+        Path file = dir.resolve(name);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, text, StandardCharsets.UTF_8);
+        return file;
+    }
+
+    // Builds as the default engine does, but throws for a species named
+    // "oops" and fails with an Error for one named "boom"
+    private static class FailingEngine implements ClusteringEngine {
+        public PhyloTreeNode cluster(PhyloTreeNode[] leaves, DistanceMatrix distances) {
+            for( PhyloTreeNode leaf : leaves ) {
+                if( leaf.getLabel().equals("oops") ) {
+                    throw new IllegalStateException("oops");
+                }
+                if( leaf.getLabel().equals("boom") ) {
+                    throw new StackOverflowError("boom");
+                }
+            }
+            return new NearestNeighborChainEngine().cluster(leaves, distances);
+        }
+    }
+}
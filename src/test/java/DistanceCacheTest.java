@@ -0,0 +1,150 @@
+/*
+ * DistanceCacheTest.java
+ *
+ * Checks that DistanceCache gives back what was put, misses on anything
+ * else (other species, size or precision, a damaged file), evicts the
+ * least recently used files over its size limit, and that builds using it
+ * give the same tree.
+ *
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class DistanceCacheTest {
+    private static final int SIZE = 30;
+
+    @TempDir
+    File dir;
+
+    @Test
+    public void hitAndMiss() {
+        DistanceCache cache = new DistanceCache(dir, 1L << 30);
+        DistanceMatrix matrix = randomMatrix(SIZE, 1);
+        assertNull(cache.get("a", SIZE, false));
+        cache.put("a", matrix, false);
+        assertMatrix(matrix, cache.get("a", SIZE, false), false);
+        assertNull(cache.get("b", SIZE, false));
+        assertNull(cache.get("a", SIZE + 1, false));
+        assertNull(cache.get("a", SIZE, true));
+        cache.put("a", matrix, true);
+        assertMatrix(matrix, cache.get("a", SIZE, true), true);
+    }
+
+    @Test
+    public void damagedFileMisses() throws IOException {
+        DistanceCache cache = new DistanceCache(dir, 1L << 30);
+        cache.put("a", randomMatrix(SIZE, 2), false);
+        File[] files = dir.listFiles();
+        assertEquals(1, files.length);
+        try( RandomAccessFile file = new RandomAccessFile(files[0], "rw") ) {
+            file.setLength(file.length() - 8);
+        }
+        assertNull(cache.get("a", SIZE, false));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws IOException {
+        DistanceMatrix matrix = randomMatrix(SIZE, 3);
+        DistanceCache sizer = new DistanceCache(new File(dir, "sizer"), 1L << 30);
+        sizer.put("x", matrix, false);
+        long entry = new File(dir, "sizer").listFiles()[0].length();
+
+        // room for two entries
+        File directory = new File(dir, "cache");
+        DistanceCache cache = new DistanceCache(directory, 2 * entry);
+        cache.put("a", matrix, false);
+        cache.put("b", matrix, false);
+        age(directory, 2000000);
+        // using a makes b the least recently used
+        assertNotNull(cache.get("a", SIZE, false));
+        cache.put("c", matrix, false);
+        assertNotNull(cache.get("a", SIZE, false));
+        assertNull(cache.get("b", SIZE, false));
+        assertNotNull(cache.get("c", SIZE, false));
+
+        // an entry larger than the limit is still kept, alone
+        DistanceCache tiny = new DistanceCache(directory, 1);
+        tiny.put("d", matrix, false);
+        assertEquals(1, directory.listFiles().length);
+        assertNotNull(tiny.get("d", SIZE, false));
+    }
+
+    @Test
+    public void keys() {
+        Species[] species = {new Species("a", "ACGT"), new Species("b", "ACGA")};
+        String key = DistanceCache.key(species);
+        assertEquals(key, DistanceCache.key(new Species[] {new Species("a", "ACGT"), new Species("b", "ACGA")}));
+        assertNotEquals(key, DistanceCache.key(new Species[] {new Species("a", "ACGT"), new Species("c", "ACGA")}));
+        assertNotEquals(key, DistanceCache.key(new Species[] {new Species("a", "ACGT"), new Species("b", "ACGG")}));
+        assertNotEquals(key, DistanceCache.key(new Species[] {species[1], species[0]}));
+        assertFalse(key.isEmpty());
+    }
+
+    @Test
+    public void cachedBuildsMatch() {
+        Species[] species = TreeQueryTest.randomSpecies(new Random(12), 50, 40);
+        String expected = new PhyloTree(species, 1, new BuildOptions()).toTreeString();
+        BuildOptions options = new BuildOptions();
+        options.setDistanceCache(new DistanceCache(dir, 1L << 30));
+        assertEquals(expected, new PhyloTree(species, 1, options).toTreeString());
+        assertEquals(1, dir.listFiles().length);
+        assertEquals(expected, new PhyloTree(species, 1, options).toTreeString());
+    }
+
+    // age
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Every file in directory has been marked as last used millis
+    //          milliseconds earlier
+    private static void age(File directory, long millis) {
+        for( File file : directory.listFiles() ) {
+            file.setLastModified(file.lastModified() - millis);
+        }
+        return;
+    }
+
+    // randomMatrix
+    // Pre-conditions:
+    //        - size > 0
+    // Post-conditions:
+    //        - Returns a size x size matrix of random distances
+    private static DistanceMatrix randomMatrix(int size, long seed) {
+        Random random = new Random(seed);
+        DistanceMatrix matrix = DistanceMatrix.create(size, false, false);
+        for( int i=0; i<size; i++ ) {
+            for( int j=i+1; j<size; j++ ) {
+                matrix.set(i, j, random.nextDouble());
+            }
+        }
+        return matrix;
+    }
+
+    // assertMatrix
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Fails unless actual holds expected's entries, as floats if
+    //          singlePrecision
+    private static void assertMatrix(DistanceMatrix expected, DistanceMatrix actual, boolean singlePrecision) {
+        assertEquals(expected.size(), actual.size());
+        for( int i=0; i<expected.size(); i++ ) {
+            for( int j=0; j<expected.size(); j++ ) {
+                double value = expected.get(i, j);
+                assertEquals(singlePrecision ? (float) value : value, actual.get(i, j));
+            }
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * EngineEquivalenceTest.java
+ *
+ * Checks that the fast ClusteringEngines build exactly the same trees as
+ * GreedyEngine, the literal reference, on many small random alignments.
+ *
+ * Each random alignment has 2 to 12 species with sequences of 1 to 8 sites
+ * over {A,C}, so that many distances, and many averages of distances, tie;
+ * ties are where the engines can disagree, since they make their joins in
+ * different orders.  Every alignment is built by GreedyEngine and by
+ * NearestNeighborChainEngine and RowMinimumEngine, with each Linkage for
+ * which the trees must match (see AgglomerativeEngine), and the trees are
+ * compared in toTreeString format.
+ *
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+public class EngineEquivalenceTest {
+    private static final Linkage[] LINKAGES = {Linkage.UPGMA, Linkage.SINGLE, Linkage.COMPLETE};
+
+    // An exact tie at 0.6 between (s2+s3, s1+s4) and (s1+s4, s0+s5)
+    @Test
+    public void knownTie() {
+        String[] sequences = {"CCCAA", "AACCC", "ACACC", "ACAAC", "AACCA", "CACAC"};
+        assertEquals(List.of(), mismatches(species(names("s", 6), sequences), false));
+    }
+
+    @Test
+    public void randomAlignments() {
+        Random random = new Random(1);
+        List<String> mismatches = new ArrayList<String>();
+        for( int trial=0; trial<1000; trial++ ) {
+            mismatches.addAll(mismatches(randomSpecies(random, names("s", 12)), false));
+        }
+        assertEquals(List.of(), mismatches);
+    }
+
+    // Names that are prefixes of each other, where the joined labels
+    // compare character by character across the "+"
+    @Test
+    public void prefixNames() {
+        String[] names = {"a", "ab", "a_b", "b", "ba", "a0", "aa", "b_", "c", "ca"};
+        Random random = new Random(2);
+        List<String> mismatches = new ArrayList<String>();
+        for( int trial=0; trial<300; trial++ ) {
+            mismatches.addAll(mismatches(randomSpecies(random, names), false));
+        }
+        assertEquals(List.of(), mismatches);
+    }
+
+    @Test
+    public void compactTrees() {
+        Random random = new Random(3);
+        List<String> mismatches = new ArrayList<String>();
+        for( int trial=0; trial<300; trial++ ) {
+            mismatches.addAll(mismatches(randomSpecies(random, names("s", 12)), true));
+        }
+        assertEquals(List.of(), mismatches);
+    }
+
+    // mismatches
+    // Pre-conditions:
+    //        - species holds at least one species, all of the same length
+    // Post-conditions:
+    //        - Returns a description of every engine and linkage whose tree
+    //          differs from GreedyEngine's (empty if none does)
+    static List<String> mismatches(Species[] species, boolean compact) {
+        List<String> mismatches = new ArrayList<String>();
+        for( Linkage linkage : LINKAGES ) {
+            String expected = build(species, new GreedyEngine(linkage), compact);
+            ClusteringEngine[] engines = {new NearestNeighborChainEngine(linkage), new RowMinimumEngine(linkage)};
+            for( ClusteringEngine engine : engines ) {
+                String built = build(species, engine, compact);
+                if( !built.equals(expected) ) {
+                    mismatches.add(engine.getClass().getName() + " " + linkage + " on " + describe(species)
+                                   + ": expected " + expected + ", built " + built);
+                }
+            }
+        }
+        return mismatches;
+    }
+
+    // build
+    // Pre-conditions:
+    //        - species holds at least one species, all of the same length
+    // Post-conditions:
+    //        - Returns the tree engine builds from species, in toTreeString
+    //          format
+    static String build(Species[] species, ClusteringEngine engine, boolean compact) {
+        BuildOptions options = new BuildOptions();
+        options.setEngine(engine);
+        options.setCompact(compact);
+        return new PhyloTree(species, 1, options).toTreeString();
+    }
+
+    // randomSpecies
+    // Pre-conditions:
+    //        - names holds at least 2 names
+    // Post-conditions:
+    //        - Returns 2 to names.length species, with the first names and
+    //          random sequences of 1 to 8 sites over {A,C}
+    static Species[] randomSpecies(Random random, String[] names) {
+        String[] sequences = new String[2 + random.nextInt(names.length - 1)];
+        int length = 1 + random.nextInt(8);
+        for( int i=0; i<sequences.length; i++ ) {
+            StringBuilder sequence = new StringBuilder();
+            for( int j=0; j<length; j++ ) {
+                sequence.append(random.nextBoolean() ? 'A' : 'C');
+            }
+            sequences[i] = sequence.toString();
+        }
+        return species(names, sequences);
+    }
+
+    // names
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the names prefix0, prefix1, ... prefix(count-1)
+    static String[] names(String prefix, int count) {
+        String[] names = new String[count];
+        for( int i=0; i<count; i++ ) {
+            names[i] = prefix + i;
+        }
+        return names;
+    }
+
+    // species
+    // Pre-conditions:
+    //        - sequences holds sequences of the same length, and names at
+    //          least as many names
+    // Post-conditions:
+    //        - Returns one species per sequence, named from names in order
+    static Species[] species(String[] names, String[] sequences) {
+        Species[] species = new Species[sequences.length];
+        for( int i=0; i<sequences.length; i++ ) {
+            species[i] = new Species(names[i], sequences[i]);
+        }
+        return species;
+    }
+
+    // describe
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns species as "s0=... s1=...", to reproduce a mismatch
+    private static String describe(Species[] species) {
+        StringBuilder text = new StringBuilder();
+        for( Species s : species ) {
+            if( text.length() > 0 ) {
+                text.append(' ');
+            }
+            text.append(s.getName()).append('=').append(String.join("", s.getSequence()));
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * FastaReaderTest.java
+ *
+ * Checks FastaReader on the layouts FASTA files come in: sequences split
+ * over lines, Windows line endings, blank lines and stray whitespace,
+ * bar-separated and described headers, no final newline, and sequences
+ * longer than the reader's buffers.
+ *
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class FastaReaderTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    public void multiLineSequences() throws IOException {
+        Species[] species = read(">a\nACG\nTA\n>b\nCC\nGGT\n");
+        assertEquals(2, species.length);
+        assertSpecies(">a", "ACGTA", species[0]);
+        assertSpecies(">b", "CCGGT", species[1]);
+    }
+
+    @Test
+    public void windowsLineEndingsAndWhitespace() throws IOException {
+        Species[] species = read(">a\r\nAC GT\r\n\r\n\tAC\r\n>b\r\n\r\nACGTAC\r\n");
+        assertSpecies(">a", "ACGTAC", species[0]);
+        assertSpecies(">b", "ACGTAC", species[1]);
+        assertEquals(0.0, Species.distance(species[0], species[1]));
+    }
+
+    // As loadSpeciesFile always named species, a name without bars keeps its '>'
+    @Test
+    public void headerNames() throws IOException {
+        Species[] species = read(">gi|123|sp|first some description\nA\n>second\tmore\nA\n>x|third|\nA\n");
+        assertEquals("first", species[0].getName());
+        assertEquals(">second", species[1].getName());
+        assertEquals("third", species[2].getName());
+    }
+
+    @Test
+    public void textBeforeFirstHeaderIsIgnored() throws IOException {
+        Species[] species = read("; a comment\nACGT\n>a\nTT\n");
+        assertEquals(1, species.length);
+        assertSpecies(">a", "TT", species[0]);
+    }
+
+    @Test
+    public void noFinalNewline() throws IOException {
+        assertSpecies(">a", "ACG", read(">a\nACG")[0]);
+    }
+
+    @Test
+    public void emptyFileAndEmptySequence() throws IOException {
+        assertEquals(0, read("").length);
+        Species[] species = read(">a\n>b\nAC\n");
+        assertSpecies(">a", "", species[0]);
+        assertSpecies(">b", "AC", species[1]);
+    }
+
+    @Test
+    public void countsAndLengths() throws IOException {
+        FastaReader reader = new FastaReader();
+        Path file = write(">a\nACGT\n>b\nAC\n>c\nACG\n");
+        reader.read(file.toString());
+        assertEquals(3, reader.getHeaderCount());
+        assertEquals(4, reader.getSequenceLength());
+        assertEquals(Files.size(file), reader.getBytesRead());
+    }
+
+    // Sites outside the nucleotide codes, including Latin-1 bytes above 127
+    @Test
+    public void otherAlphabets() throws IOException {
+        Path file = dir.resolve("protein.fasta");
+        byte[] bytes = ">p\nMKVL\n>q\nMKvL\n>r\nMKéL\n".getBytes(StandardCharsets.ISO_8859_1);
+        Files.write(file, bytes);
+        Species[] species = new FastaReader().read(file.toString());
+        assertSpecies(">p", "MKVL", species[0]);
+        assertSpecies(">q", "MKvL", species[1]);
+        assertSpecies(">r", "MKéL", species[2]);
+        assertEquals(0.25, Species.distance(species[0], species[1]));
+        assertEquals(0.25, Species.distance(species[0], species[2]));
+    }
+
+    // Longer than both the sequence buffer and a block of the mapping
+    @Test
+    public void longSequences() throws IOException {
+        StringBuilder sites = new StringBuilder();
+        StringBuilder text = new StringBuilder(">long\n");
+        for( int i=0; i<200000; i++ ) {
+            char c = "ACGT".charAt((i * 7 + i / 13) % 4);
+            sites.append(c);
+            text.append(c);
+            if( i % 60 == 59 ) {
+                text.append('\n');
+            }
+        }
+        text.append("\n>next\nA\n");
+        Species[] species = read(text.toString());
+        assertSpecies(">long", sites.toString(), species[0]);
+        assertSpecies(">next", "A", species[1]);
+    }
+
+    // read
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the species FastaReader reads from a file holding text
+    private Species[] read(String text) throws IOException {
+        return new FastaReader().read(write(text).toString());
+    }
+
+    // write
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns a new file in dir holding text
+    private Path write(String text) throws IOException {
+        Path file = Files.createTempFile(dir, "species", ".fasta");
+        Files.writeString(file, text, StandardCharsets.ISO_8859_1);
+        return file;
+    }
+
+    // assertSpecies
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Fails unless species has name and the sites of sequence
+    private static void assertSpecies(String name, String sequence, Species species) {
+        assertEquals(name, species.getName());
+        assertEquals(sequence.length(), species.getLength());
+        assertEquals(sequence, String.join("", species.getSequence()));
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * NearestNeighborChainEngineTest.java
+ *
+ * Checks that NearestNeighborChainEngine stays O(n^2) when every distance
+ * ties (all sequences identical), where each join has the most candidate
+ * pairs to choose between, and that it still builds GreedyEngine's tree
+ * there.  SINGLE linkage, which takes its own path, is also timed on
+ * random sequences.
+ *
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeout;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+public class NearestNeighborChainEngineTest {
+    private static final Duration LIMIT = Duration.ofSeconds(15);   // An O(n^3) tie rule took 49s at n=2000
+
+    @Test
+    public void identicalUpgma() {
+        assertTimeout(LIMIT, () -> build(identical(2000), Linkage.UPGMA));
+    }
+
+    @Test
+    public void identicalComplete() {
+        assertTimeout(LIMIT, () -> build(identical(2000), Linkage.COMPLETE));
+    }
+
+    @Test
+    public void identicalSingle() {
+        assertTimeout(LIMIT, () -> build(identical(2000), Linkage.SINGLE));
+    }
+
+    @Test
+    public void randomSingle() {
+        Species[] species = EngineEquivalenceTest.randomSpecies(new Random(4), EngineEquivalenceTest.names("s", 2000));
+        assertTimeout(LIMIT, () -> build(species, Linkage.SINGLE));
+    }
+
+    @Test
+    public void identicalMatchesGreedy() {
+        Species[] species = identical(150);
+        for( Linkage linkage : new Linkage[] {Linkage.UPGMA, Linkage.SINGLE, Linkage.COMPLETE} ) {
+            assertEquals(EngineEquivalenceTest.build(species, new GreedyEngine(linkage), false), build(species, linkage),
+                         linkage.toString());
+        }
+    }
+
+    // build
+    // Pre-conditions:
+    //        - species holds at least one species, all of the same length
+    // Post-conditions:
+    //        - Returns the tree NearestNeighborChainEngine builds from
+    //          species with linkage, in toTreeString format
+    static String build(Species[] species, Linkage linkage) {
+        return EngineEquivalenceTest.build(species, new NearestNeighborChainEngine(linkage), false);
+    }
+
+    // identical
+    // Pre-conditions:
+    //        - count > 0
+    // Post-conditions:
+    //        - Returns count species with the same sequence
+    static Species[] identical(int count) {
+        String[] sequences = new String[count];
+        Arrays.fill(sequences, "ACGTACGTAC");
+        return EngineEquivalenceTest.species(EngineEquivalenceTest.names("s", count), sequences);
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * PatristicDistancesTest.java
+ *
+ * Checks the patristic matrix against findEvolutionaryDistance for every
+ * pair of species, row by row as well as whole, and the layout of the
+ * matrix file: a little-endian int n, then n rows of n little-endian
+ * doubles or floats.
+ *
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class PatristicDistancesTest {
+    private static final double TOLERANCE = 1e-12;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void matchesEvolutionaryDistance() {
+        for( boolean compact : new boolean[] {false, true} ) {
+            BuildOptions options = new BuildOptions();
+            options.setCompact(compact);
+            PhyloTree tree = new PhyloTree(TreeQueryTest.randomSpecies(new Random(9), 60, 30), 1, options);
+            List<Species> species = tree.getAllSpecies();
+            int n = species.size();
+            DistanceMatrix matrix = tree.getPatristicMatrix();
+            PatristicDistances distances = new PatristicDistances(tree.getOverallRoot(), species);
+            double[] row = new double[n];
+            for( int s=0; s<n; s++ ) {
+                distances.row(s, row);
+                for( int t=0; t<n; t++ ) {
+                    double expected = tree.findEvolutionaryDistance(species.get(s).getName(), species.get(t).getName());
+                    assertEquals(expected, matrix.get(s, t), TOLERANCE);
+                    assertEquals(matrix.get(s, t), row[t]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void fileLayout() throws IOException {
+        PhyloTree tree = new PhyloTree(TreeQueryTest.randomSpecies(new Random(10), 300, 30), 1, new BuildOptions());
+        DistanceMatrix matrix = tree.getPatristicMatrix();
+        int n = tree.getAllSpecies().size();
+        for( boolean single : new boolean[] {false, true} ) {
+            Path file = dir.resolve(single ? "single.bin" : "double.bin");
+            tree.writePatristicMatrix(file.toString(), single);
+            byte[] bytes = Files.readAllBytes(file);
+            assertEquals(4 + (long) n * n * (single ? 4 : 8), bytes.length);
+            // n = 300 = 0x012C, low byte first
+            assertEquals(0x2C, bytes[0] & 0xFF);
+            assertEquals(0x01, bytes[1]);
+            ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+            assertEquals(n, buffer.getInt());
+            for( int s=0; s<n; s++ ) {
+                for( int t=0; t<n; t++ ) {
+                    if( single ) {
+                        assertEquals((float) matrix.get(s, t), buffer.getFloat());
+                    } else {
+                        assertEquals(matrix.get(s, t), buffer.getDouble());
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * SpeciesTest.java
+ *
+ * Checks that packed sequences give back their sites and distances, with
+ * 4, 8 and 16 bits per site and against sequences that could not be
+ * packed.
+ *
+ */
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+public class SpeciesTest {
+    @Test
+    public void sites() {
+        for( String sequence : new String[] {"ACGT-NRY", "MKVLWHQE", "ACΔΣGT", ""} ) {
+            Species species = new Species("s", sequence);
+            String[] sites = sequence.isEmpty() ? new String[0] : sequence.split("");
+            assertArrayEquals(sites, species.getSequence());
+            for( int i=0; i<sites.length; i++ ) {
+                assertEquals(sites[i], species.getSite(i));
+            }
+        }
+    }
+
+    @Test
+    public void distances() {
+        Species nucleotides = new Species("a", "ACGTACGTACGTACGTACGT");
+        assertEquals(0.0, Species.distance(nucleotides, new Species("b", "ACGTACGTACGTACGTACGT")));
+        assertEquals(0.1, Species.distance(nucleotides, new Species("b", "ACGTACGTACGTACGTACAA")));
+        // 4 bits per site against 8 and 16
+        assertEquals(0.05, Species.distance(nucleotides, new Species("b", "ACGTACGTACGTACGTACGZ")));
+        assertEquals(0.05, Species.distance(nucleotides, new Species("b", "ACGTACGTACGTACGTACGΔ")));
+        // Against a sequence with multi-character sites, which is not packed
+        String[] sites = "ACGTACGTACGTACGTACGT".split("");
+        sites[3] = "TT";
+        assertEquals(0.05, Species.distance(nucleotides, new Species("b", sites)));
+        assertEquals(0.05, Species.distance(new Species("b", sites), nucleotides));
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * TreeFileTest.java
+ *
+ * Checks that saved trees load back unchanged, and that damaged files are
+ * rejected with an IOException: damage the CRC catches, and files edited
+ * with a recomputed CRC that break the tree, its species or its saved LCA
+ * index.
+ *
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class TreeFileTest {
+    private static final int HEADER = 40;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void roundTrip() throws IOException {
+        for( int count : new int[] {1, 2, 3, 40} ) {
+            for( boolean compact : new boolean[] {false, true} ) {
+                for( boolean withIndexes : new boolean[] {false, true} ) {
+                    BuildOptions options = new BuildOptions();
+                    options.setCompact(compact);
+                    PhyloTree tree = new PhyloTree(TreeQueryTest.randomSpecies(new Random(count), count, 20), 1, options);
+                    String file = dir.resolve("tree.bin").toString();
+                    tree.save(file, withIndexes);
+                    PhyloTree loaded = PhyloTree.load(file, 1);
+                    assertEquals(tree.toTreeString(), loaded.toTreeString());
+                    List<Species> species = tree.getAllSpecies();
+                    for( int s=0; s<species.size(); s++ ) {
+                        assertEquals(species.get(s).getName(), loaded.getAllSpecies().get(s).getName());
+                    }
+                    if( withIndexes ) {
+                        assertNotNull(new TreeFile(file).getLcaIndex());
+                    } else {
+                        assertNull(new TreeFile(file).getLcaIndex());
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void accidentalDamage() throws IOException {
+        byte[] bytes = save();
+        assertRejected(Arrays.copyOf(bytes, bytes.length - 1));
+        assertRejected(Arrays.copyOf(bytes, 20));
+        byte[] flipped = bytes.clone();
+        flipped[HEADER + 100] ^= 1;
+        assertRejected(flipped);
+        byte[] magic = bytes.clone();
+        magic[0] = 'X';
+        assertRejected(magic);
+        byte[] version = bytes.clone();
+        version[4] = 99;
+        assertRejected(version);
+    }
+
+    // Edits that keep a valid CRC must still be caught by the checks
+    @Test
+    public void editedFiles() throws IOException {
+        byte[] bytes = save();
+        // the re-signing itself leaves a loadable file
+        load(edit(bytes, layout -> { }));
+
+        assertRejected(edit(bytes, layout -> layout.putInt(layout.header(12), -1)));
+        assertRejected(edit(bytes, layout -> layout.putInt(layout.leafNode(1), layout.getInt(layout.leafNode(0)))));
+        assertRejected(edit(bytes, layout -> layout.putInt(layout.leafNode(0), layout.nodes)));
+        assertRejected(edit(bytes, layout -> layout.putInt(layout.leafNode(0), 0)));
+        assertRejected(edit(bytes, layout -> layout.putInt(layout.left(0), 0)));
+        assertRejected(edit(bytes, layout -> layout.putInt(layout.left(0), layout.getInt(layout.right(0)))));
+        assertRejected(edit(bytes, layout -> layout.putInt(layout.parent(1), 2)));
+        assertRejected(edit(bytes, layout -> layout.putInt(layout.parent(0), 0)));
+        assertRejected(edit(bytes, layout -> layout.putInt(layout.left(1), -1)));
+        assertRejected(edit(bytes, layout -> layout.putInt(layout.nameOffset(1), layout.getInt(layout.nameOffset(2)) + 1)));
+        assertRejected(edit(bytes, layout -> layout.putInt(layout.table(layout.firstUsedSlot()), 1)));
+        assertRejected(edit(bytes, layout -> layout.putInt(layout.table(layout.firstUsedSlot()), layout.nodes + 1)));
+        assertRejected(edit(bytes, layout -> layout.putInt(layout.depth(5), layout.getInt(layout.depth(5)) + 1)));
+        assertRejected(edit(bytes, layout -> layout.putInt(layout.first(3), 2 * layout.nodes - 1)));
+        assertRejected(edit(bytes, layout -> layout.putInt(layout.first(3), -1)));
+        assertRejected(edit(bytes, layout -> layout.putInt(layout.level(0, 7), layout.nodes)));
+        assertRejected(edit(bytes, layout -> layout.putInt(layout.level(1, 0), -1)));
+        assertRejected(edit(bytes, layout -> layout.putInt(layout.levels(), layout.getInt(layout.levels()) - 1)));
+        assertRejected(edit(bytes, layout -> layout.putInt(layout.levels(), Integer.MAX_VALUE)));
+    }
+
+    @Test
+    public void trailingBytes() throws IOException {
+        byte[] bytes = save();
+        byte[] longer = Arrays.copyOf(bytes, bytes.length + 4);
+        ByteBuffer.wrap(longer).order(ByteOrder.LITTLE_ENDIAN).putLong(24, longer.length - HEADER);
+        assertRejected(edit(longer, layout -> { }));
+    }
+
+    // save
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the bytes of a saved 20-species tree with its LCA index
+    private byte[] save() throws IOException {
+        PhyloTree tree = new PhyloTree(TreeQueryTest.randomSpecies(new Random(11), 20, 30), 1, new BuildOptions());
+        Path file = dir.resolve("saved.bin");
+        tree.save(file.toString(), true);
+        return Files.readAllBytes(file);
+    }
+
+    // edit
+    // Pre-conditions:
+    //        - bytes is a saved tree with its LCA index, with a correct
+    //          payload length
+    // Post-conditions:
+    //        - Returns a copy of bytes changed by change, with the CRC
+    //          recomputed as write computes it
+    private static byte[] edit(byte[] bytes, Consumer<Layout> change) {
+        byte[] edited = bytes.clone();
+        Layout layout = new Layout(edited);
+        change.accept(layout);
+        CRC32 crc = new CRC32();
+        crc.update(edited, HEADER, edited.length - HEADER);
+        crc.update(edited, 0, 32);
+        layout.buffer.putLong(32, crc.getValue());
+        return edited;
+    }
+
+    // load
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Returns the tree loaded from a file holding bytes
+    private PhyloTree load(byte[] bytes) throws IOException {
+        Path file = Files.createTempFile(dir, "tree", ".bin");
+        Files.write(file, bytes);
+        return PhyloTree.load(file.toString(), 1);
+    }
+
+    // assertRejected
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - Fails unless loading a file holding bytes throws IOException
+    private void assertRejected(byte[] bytes) {
+        assertThrows(IOException.class, () -> load(bytes));
+    }
+
+    // The byte offsets of the sections of a saved tree with its LCA index
+    // (see TreeFile), found from the counts in the file
+    private static class Layout {
+        private ByteBuffer buffer;
+        private int nodes;
+        private int leaves;
+        private int tableStart;
+        private int indexStart;
+
+        Layout(byte[] bytes) {
+            this.buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+            this.nodes = this.buffer.getInt(12);
+            this.leaves = this.buffer.getInt(16);
+            int namesLength = this.buffer.getInt(nameOffset(this.leaves));
+            this.tableStart = nameOffset(this.leaves + 1) + namesLength;
+            this.indexStart = this.tableStart + 4 + 4 * this.buffer.getInt(this.tableStart);
+        }
+
+        int getInt(int offset) {
+            return this.buffer.getInt(offset);
+        }
+
+        void putInt(int offset, int value) {
+            this.buffer.putInt(offset, value);
+        }
+
+        int header(int offset) {
+            return offset;
+        }
+
+        int parent(int id) {
+            return HEADER + 4 * id;
+        }
+
+        int left(int id) {
+            return HEADER + 4 * this.nodes + 4 * id;
+        }
+
+        int right(int id) {
+            return HEADER + 8 * this.nodes + 4 * id;
+        }
+
+        int leafNode(int s) {
+            return HEADER + 20 * this.nodes + 4 * s;
+        }
+
+        int nameOffset(int s) {
+            return HEADER + 20 * this.nodes + 4 * this.leaves + 4 * s;
+        }
+
+        int table(int slot) {
+            return this.tableStart + 4 + 4 * slot;
+        }
+
+        int firstUsedSlot() {
+            int slot = 0;
+            while( getInt(table(slot)) == 0 ) {
+                slot++;
+            }
+            return slot;
+        }
+
+        int depth(int id) {
+            return this.indexStart + 4 * id;
+        }
+
+        int first(int id) {
+            return this.indexStart + 12 * this.nodes + 4 * id;
+        }
+
+        int levels() {
+            return this.indexStart + 16 * this.nodes;
+        }
+
+        int level(int k, int i) {
+            int offset = levels() + 4;
+            for( int j=0; j<k; j++ ) {
+                offset += 4 + 4 * getInt(offset);
+            }
+            return offset + 4 + 4 * i;
+        }
+    }
+}
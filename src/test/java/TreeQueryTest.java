@@ -0,0 +1,185 @@
+/*
+ * TreeQueryTest.java
+ *
+ * Checks findLeastCommonAncestor and findEvolutionaryDistance, and their
+ * batch forms, against a naive walk up the parent links, for every pair
+ * of nodes in a random tree.  The tree is queried as built (linked and
+ * compact) and as loaded from a tree file, with and without its saved LCA
+ * index.
+ *
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class TreeQueryTest {
+    private static final double TOLERANCE = 1e-12;   // The index subtracts depths, the walk adds edges
+
+    @TempDir
+    static Path dir;
+
+    private static PhyloTree linked;
+    private static PhyloTree[] trees;                // linked, compact, loaded with and without the index
+    private static List<String> labels;
+
+    @BeforeAll
+    public static void build() throws IOException {
+        Species[] species = randomSpecies(new Random(7), 80, 40);
+        linked = new PhyloTree(species, 1, new BuildOptions());
+        BuildOptions compact = new BuildOptions();
+        compact.setCompact(true);
+        PhyloTree compactTree = new PhyloTree(species, 1, compact);
+        String indexed = dir.resolve("indexed.tree").toString();
+        String plain = dir.resolve("plain.tree").toString();
+        compactTree.save(indexed, true);
+        linked.save(plain, false);
+        trees = new PhyloTree[] {linked, compactTree, PhyloTree.load(indexed, 1), PhyloTree.load(plain, 1)};
+        labels = new ArrayList<String>();
+        collectLabels(linked.getOverallRoot(), labels);
+    }
+
+    @Test
+    public void singleQueries() {
+        for( PhyloTree tree : trees ) {
+            for( String label1 : labels ) {
+                PhyloTreeNode node1 = tree.findTreeNodeByLabel(label1);
+                assertEquals(label1, node1.getLabel());
+                for( String label2 : labels ) {
+                    PhyloTreeNode node2 = tree.findTreeNodeByLabel(label2);
+                    String pair = label1 + " " + label2;
+                    assertEquals(naiveAncestor(node1, node2).getLabel(),
+                                 tree.findLeastCommonAncestor(label1, label2).getLabel(), pair);
+                    assertEquals(naiveDistance(node1, node2), tree.findEvolutionaryDistance(label1, label2),
+                                 TOLERANCE, pair);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void missingLabels() {
+        for( PhyloTree tree : trees ) {
+            assertNull(tree.findTreeNodeByLabel("missing"));
+            assertNull(tree.findLeastCommonAncestor("missing", labels.get(0)));
+            assertEquals(Double.POSITIVE_INFINITY, tree.findEvolutionaryDistance(labels.get(0), "missing"));
+        }
+    }
+
+    @Test
+    public void batchQueries() {
+        Random random = new Random(8);
+        int count = 5000;
+        String[] labels1 = new String[count];
+        String[] labels2 = new String[count];
+        for( int i=0; i<count; i++ ) {
+            labels1[i] = labels.get(random.nextInt(labels.size()));
+            labels2[i] = (i % 100 == 0) ? "missing" : labels.get(random.nextInt(labels.size()));
+        }
+        for( PhyloTree tree : trees ) {
+            int[] ids1 = new int[count];
+            int[] ids2 = new int[count];
+            int[] ancestors = new int[count];
+            double[] byId = new double[count];
+            double[] byLabel = new double[count];
+            tree.resolveLabels(labels1, ids1, count, 2);
+            tree.resolveLabels(labels2, ids2, count, 2);
+            tree.findLeastCommonAncestors(ids1, ids2, ancestors, count, 2);
+            tree.findEvolutionaryDistances(ids1, ids2, byId, count, 2);
+            tree.findEvolutionaryDistances(labels1, labels2, byLabel, count, 2);
+            for( int i=0; i<count; i++ ) {
+                PhyloTreeNode ancestor = tree.findLeastCommonAncestor(labels1[i], labels2[i]);
+                if( ancestor == null ) {
+                    assertEquals(-1, ancestors[i]);
+                } else {
+                    assertEquals(ancestor.getLabel(), tree.getNodeById(ancestors[i]).getLabel());
+                }
+                assertEquals(tree.findEvolutionaryDistance(labels1[i], labels2[i]), byId[i]);
+                assertEquals(byId[i], byLabel[i]);
+            }
+        }
+    }
+
+    // naiveAncestor
+    // Pre-conditions:
+    //        - node1 and node2 are nodes of the same tree
+    // Post-conditions:
+    //        - Returns their least common ancestor, found by marking every
+    //          ancestor of node1 and climbing from node2 to the first one
+    private static PhyloTreeNode naiveAncestor(PhyloTreeNode node1, PhyloTreeNode node2) {
+        HashSet<String> ancestors = new HashSet<String>();
+        for( PhyloTreeNode node = node1; node != null; node = node.getParent() ) {
+            ancestors.add(node.getLabel());
+        }
+        PhyloTreeNode node = node2;
+        while( !ancestors.contains(node.getLabel()) ) {
+            node = node.getParent();
+        }
+        return node;
+    }
+
+    // naiveDistance
+    // Pre-conditions:
+    //        - node1 and node2 are nodes of the same tree
+    // Post-conditions:
+    //        - Returns the sum of the edge weights on the path between them
+    private static double naiveDistance(PhyloTreeNode node1, PhyloTreeNode node2) {
+        String ancestor = naiveAncestor(node1, node2).getLabel();
+        return pathUp(node1, ancestor) + pathUp(node2, ancestor);
+    }
+
+    // pathUp
+    // Pre-conditions:
+    //        - the node labelled ancestor is node or one of its ancestors
+    // Post-conditions:
+    //        - Returns the sum of the edge weights from node up to it
+    private static double pathUp(PhyloTreeNode node, String ancestor) {
+        double sum = 0.0;
+        while( !node.getLabel().equals(ancestor) ) {
+            node = node.getParent();
+            sum += node.getDistanceToChild();
+        }
+        return sum;
+    }
+
+    // collectLabels
+    // Pre-conditions:
+    //        - None
+    // Post-conditions:
+    //        - labels holds the label of every node under node, in pre-order
+    private static void collectLabels(PhyloTreeNode node, List<String> labels) {
+        if( node == null ) {
+            return;
+        }
+        labels.add(node.getLabel());
+        collectLabels(node.getLeftChild(), labels);
+        collectLabels(node.getRightChild(), labels);
+    }
+
+    // randomSpecies
+    // Pre-conditions:
+    //        - count > 0, length > 0
+    // Post-conditions:
+    //        - Returns count species of random nucleotide sequences
+    static Species[] randomSpecies(Random random, int count, int length) {
+        Species[] species = new Species[count];
+        for( int i=0; i<count; i++ ) {
+            StringBuilder sequence = new StringBuilder();
+            for( int j=0; j<length; j++ ) {
+                sequence.append("ACGT".charAt(random.nextInt(4)));
+            }
+            species[i] = new Species("s" + i, sequence.toString());
+        }
+        return species;
+    }
+}